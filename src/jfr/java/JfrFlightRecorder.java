@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link FlightRecorder} backed by JFR custom events. Loaded reflectively, so that the rest of the
+ * benchmark still compiles and runs on Java 7.
+ */
+public class JfrFlightRecorder extends FlightRecorder {
+
+  @Name("netty5.http2.bench.ClientStream")
+  @Label("Client Stream")
+  @Category({"HTTP/2 Benchmark", "Streams"})
+  @StackTrace(false)
+  static class ClientStreamEvent extends Event {
+
+    @Label("Stream Id")
+    int streamId;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Queued")
+    @Timespan
+    long queue;
+
+    @Label("Headers")
+    @Timespan
+    long headers;
+
+    @Label("First Byte")
+    @Timespan
+    long firstByte;
+
+    @Label("Body")
+    @Timespan
+    long body;
+
+    @Label("Total")
+    @Timespan
+    long total;
+  }
+
+  @Name("netty5.http2.bench.ServerStream")
+  @Label("Server Stream")
+  @Category({"HTTP/2 Benchmark", "Streams"})
+  @StackTrace(false)
+  static class ServerStreamEvent extends Event {
+
+    @Label("Stream Id")
+    int streamId;
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Response Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Handle")
+    @Timespan
+    long handle;
+
+    @Label("Write")
+    @Timespan
+    long write;
+  }
+
+  @Name("netty5.http2.bench.EventLoopQueue")
+  @Label("Event Loop Queue")
+  @Category({"HTTP/2 Benchmark", "Event Loops"})
+  @StackTrace(false)
+  static class EventLoopQueueEvent extends Event {
+
+    @Label("Event Loop")
+    String eventLoop;
+
+    @Label("Pending Tasks")
+    int pendingTasks;
+  }
+
+  private Recording recording;
+
+  @Override
+  protected synchronized void startRecording(final File file) {
+    final Configuration configuration;
+    try {
+      configuration = Configuration.getConfiguration("profile");
+    } catch (IOException | ParseException e) {
+      throw new IllegalStateException("Failed to load the JFR profile configuration", e);
+    }
+    recording = new Recording(configuration);
+    recording.enable(ClientStreamEvent.class);
+    recording.enable(ServerStreamEvent.class);
+    recording.enable(EventLoopQueueEvent.class);
+    try {
+      recording.setDestination(file.toPath());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot record to " + file, e);
+    }
+    recording.start();
+  }
+
+  @Override
+  protected synchronized void stopRecording() {
+    // Writes the recording to its destination
+    recording.stop();
+    recording.close();
+    recording = null;
+  }
+
+  /**
+   * Committed on completion: the event's start time is the end of the stream and the phases are
+   * carried as durations.
+   */
+  @Override
+  public void clientStream(final StreamTimings timings) {
+    final ClientStreamEvent event = new ClientStreamEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.streamId = timings.streamId();
+    event.bytes = timings.bytes();
+    event.queue = timings.queueNanos();
+    event.headers = timings.headersNanos();
+    event.firstByte = timings.firstByteNanos();
+    event.body = timings.bodyNanos();
+    event.total = timings.totalNanos();
+    event.commit();
+  }
+
+  @Override
+  public void serverStream(final int streamId, final String kind, final long bytes,
+                           final long startNanos, final long writtenNanos, final long endNanos) {
+    final ServerStreamEvent event = new ServerStreamEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.streamId = streamId;
+    event.kind = kind;
+    event.bytes = bytes;
+    event.handle = writtenNanos - startNanos;
+    event.write = endNanos - writtenNanos;
+    event.commit();
+  }
+
+  @Override
+  public void eventLoopQueue(final String name, final int pendingTasks) {
+    final EventLoopQueueEvent event = new EventLoopQueueEvent();
+    event.eventLoop = name;
+    event.pendingTasks = pendingTasks;
+    event.commit();
+  }
+}
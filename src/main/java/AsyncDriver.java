@@ -0,0 +1,123 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Keeps a fixed number of requests in flight without a driver thread. Each response is handled by
+ * a listener on the client event loop that records the sample and immediately sends the next
+ * request, so a fast response never waits behind a slow one and no cross-thread wakeup is needed.
+ */
+public class AsyncDriver {
+
+  /**
+   * Creates the requests sent by the driver. Called on the client event loop.
+   */
+  public interface RequestFactory {
+
+    FullHttpRequest newRequest();
+  }
+
+  /**
+   * Delay before replacing a failed request, so that a closed connection that fails every
+   * request synchronously does not spin the event loop.
+   */
+  private static final long RETRY_DELAY_MILLIS = 100;
+
+  private final Http2Client client;
+  private final RequestFactory requests;
+  private final ProgressMeter meter;
+  private final StripedCounter errors;
+  private final long timeoutMillis;
+  private final HedgingPolicy hedging;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final CountDownLatch drained = new CountDownLatch(1);
+  private volatile boolean running;
+
+  public AsyncDriver(final Http2Client client, final RequestFactory requests,
+                     final ProgressMeter meter, final StripedCounter errors,
+                     final long timeoutMillis, final HedgingPolicy hedging) {
+    this.client = client;
+    this.requests = requests;
+    this.meter = meter;
+    this.errors = errors;
+    this.timeoutMillis = timeoutMillis;
+    this.hedging = hedging;
+  }
+
+  /**
+   * Start sending, keeping {@code concurrency} requests in flight.
+   */
+  public void start(final int concurrency) {
+    running = true;
+    for (int i = 0; i < concurrency; i++) {
+      send();
+    }
+  }
+
+  /**
+   * Stop sending new requests and wait for the outstanding ones to complete.
+   *
+   * @return false if requests were still in flight after the timeout.
+   */
+  public boolean stop(final long timeout, final TimeUnit unit) throws InterruptedException {
+    running = false;
+    return inFlight.get() == 0 || drained.await(timeout, unit);
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  private void send() {
+    inFlight.incrementAndGet();
+    final FullHttpRequest request = requests.newRequest();
+    final long startNanos = System.nanoTime();
+    final Promise<FullHttpResponse> response;
+    if (hedging != null) {
+      response = client.send(request, StreamPriority.DEFAULT, timeoutMillis, hedging);
+    } else {
+      response = client.send(request, StreamPriority.DEFAULT, timeoutMillis);
+    }
+    response.addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+      @Override
+      public void operationComplete(final Future<FullHttpResponse> future) {
+        if (future.isSuccess()) {
+          future.getNow().release();
+          final long latency = System.nanoTime() - startNanos;
+          meter.inc(1, latency);
+          if (hedging != null) {
+            hedging.record(latency);
+          }
+          next();
+        } else {
+          errors.inc();
+          client.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+              next();
+            }
+          }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replace a completed request with a new one while running, then release its slot.
+   */
+  private void next() {
+    if (running) {
+      send();
+    }
+    if (inFlight.decrementAndGet() == 0 && !running) {
+      drained.countDown();
+    }
+  }
+}
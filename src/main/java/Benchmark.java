@@ -1,30 +1,72 @@
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
+import java.io.File;
 import java.net.URI;
-import java.util.ArrayDeque;
-import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.util.concurrent.Promise;
 
 import static io.netty.buffer.Unpooled.copiedBuffer;
+import static io.netty.handler.codec.http.HttpMethod.GET;
 import static io.netty.handler.codec.http.HttpMethod.POST;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static io.netty.util.CharsetUtil.UTF_8;
 
 public class Benchmark {
 
+  private static final AsyncDriver.RequestFactory SAMPLE_REQUEST =
+      new AsyncDriver.RequestFactory() {
+        @Override
+        public FullHttpRequest newRequest() {
+          final ByteBuf content = copiedBuffer("sample data".getBytes(UTF_8));
+          final FullHttpRequest request =
+              new DefaultFullHttpRequest(HTTP_1_1, POST, "/foo", content);
+          request.headers().add(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
+          return request;
+        }
+      };
+
   private final URI uri;
   private final Integer concurrency;
+  private final String scenario;
+  private final int bulkStreams;
+  private final int bulkBytes;
+  private final int connections;
+  private final long timeoutMillis;
+  private final HedgingPolicy hedging;
+  private final long durationSeconds;
+  private final String path;
+  private final long uploadBytes;
+  private final int chunkBytes;
+  private final String trace;
+  private final double speed;
+  private final int headers;
+  private final int headerValueBytes;
+  private final HeaderWorkload.Cardinality headerCardinality;
+  private final int headerRotation;
+  private final String jfr;
+  private final int idleConnections;
+  private final int localAddresses;
+  private final int handshakes;
+  private final boolean soak;
+  private final long soakPeriod;
+  private final long rotateAge;
+  private final long rotateRequests;
+  private final Double searchSlo;
+  private final double searchPercentile;
+  private final int searchMax;
+  private final long searchWarmup;
+  private final long searchWindow;
 
   private ProgressMeter meter;
 
@@ -34,7 +76,129 @@ public class Benchmark {
     parser.addArgument("--uri")
         .setDefault("http://127.0.0.1:8080");
     parser.addArgument("-c", "--concurrency")
+        .type(Integer.class)
         .setDefault(10);
+    parser.addArgument("--connections")
+        .type(Integer.class)
+        .setDefault(1);
+    parser.addArgument("--timeout")
+        .type(Long.class)
+        .setDefault(10000L)
+        .help("Per-request deadline in milliseconds, 0 to disable");
+    parser.addArgument("--hedge")
+        .type(Double.class)
+        .help("Hedge requests on another connection after this latency percentile, e.g. 95. " +
+              "Needs --connections 2 or more");
+    parser.addArgument("-d", "--duration")
+        .type(Long.class)
+        .setDefault(0L)
+        .help("Seconds to run, 0 to run until interrupted");
+    parser.addArgument("--path")
+        .help("GET this path instead of POSTing to /foo, e.g. / or /bytes/4096. " +
+              "Start with -Dcache=<bytes> to serve it from the server response cache");
+    parser.addArgument("--trace")
+        .help("Replay requests from a trace file: tab separated lines of " +
+              "offset-micros, method, path, body-bytes and 'name: value' headers");
+    parser.addArgument("--speed")
+        .type(Double.class)
+        .setDefault(0.0)
+        .help("Replay the trace at its recorded timing times this multiplier. " +
+              "0 replays closed loop, keeping -c requests in flight");
+    parser.addArgument("--headers")
+        .type(Integer.class)
+        .setDefault(0)
+        .help("Extra headers to add to every request");
+    parser.addArgument("--header-value-bytes")
+        .type(Integer.class)
+        .setDefault(16);
+    parser.addArgument("--header-cardinality")
+        .choices("static", "rotating", "unique")
+        .setDefault("static")
+        .help("static: the same values on every request. rotating: cycle through " +
+              "--header-rotation sets of values. unique: new values on every request");
+    parser.addArgument("--header-rotation")
+        .type(Integer.class)
+        .choices(Arguments.range(1, Integer.MAX_VALUE))
+        .setDefault(16);
+    parser.addArgument("--header-table-size")
+        .type(Integer.class)
+        .help("HPACK dynamic table size advertised by the server (SETTINGS_HEADER_TABLE_SIZE)");
+    parser.addArgument("--frame-trace")
+        .type(Double.class)
+        .setDefault(0.0)
+        .help("Fraction of HTTP/2 frames to log. Can be changed at runtime through the " +
+              "WireMeter MBean");
+    parser.addArgument("--search-slo")
+        .type(Double.class)
+        .help("Search for the highest concurrency whose --search-percentile latency stays " +
+              "under this many milliseconds, instead of running at -c");
+    parser.addArgument("--search-percentile")
+        .type(Double.class)
+        .setDefault(99.0);
+    parser.addArgument("--search-max")
+        .type(Integer.class)
+        .setDefault(4096)
+        .help("Highest concurrency to try");
+    parser.addArgument("--search-warmup")
+        .type(Long.class)
+        .setDefault(5L)
+        .help("Seconds to run each step before measuring");
+    parser.addArgument("--search-window")
+        .type(Long.class)
+        .setDefault(5L)
+        .help("Seconds per measurement window. A step ends when two consecutive windows " +
+              "agree on throughput");
+    parser.addArgument("--soak")
+        .action(Arguments.storeTrue())
+        .help("Long run mode: rotate connections before their stream ids run out and print " +
+              "memory and latency drift every --soak-period seconds");
+    parser.addArgument("--soak-period")
+        .type(Long.class)
+        .setDefault(60L);
+    parser.addArgument("--rotate-age")
+        .type(Long.class)
+        .setDefault(0L)
+        .help("With --soak, also replace connections older than this many seconds");
+    parser.addArgument("--rotate-requests")
+        .type(Long.class)
+        .setDefault(0L)
+        .help("With --soak, also replace connections after this many requests");
+    parser.addArgument("--jfr")
+        .help("Record a Java Flight Recording with stream and event loop events to this file. " +
+              "Requires a build with the jfr profile on JDK 11+");
+    parser.addArgument("--scenario")
+        .choices("default", "priority", "echo", "idle")
+        .setDefault("default")
+        .help("priority: mix bulk low-weight streams with small high-weight requests. " +
+              "echo: stream uploads through the server's echo endpoint. " +
+              "idle: open --idle-connections cleartext connections and report their memory, " +
+              "without metering unless started with -Dmetering=true");
+    parser.addArgument("--idle-connections")
+        .type(Integer.class)
+        .setDefault(10000);
+    parser.addArgument("--local-addresses")
+        .type(Integer.class)
+        .choices(Arguments.range(1, 255))
+        .setDefault(4)
+        .help("Spread idle connections over source addresses 127.0.0.1 to 127.0.0.n, about " +
+              "25k connections each");
+    parser.addArgument("--handshakes")
+        .type(Integer.class)
+        .choices(Arguments.range(1, Integer.MAX_VALUE))
+        .setDefault(256)
+        .help("Idle connections being established at once");
+    parser.addArgument("--bulk-streams")
+        .type(Integer.class)
+        .setDefault(4);
+    parser.addArgument("--bulk-bytes")
+        .type(Integer.class)
+        .setDefault(1024 * 1024);
+    parser.addArgument("--upload-bytes")
+        .type(Long.class)
+        .setDefault(64L * 1024 * 1024);
+    parser.addArgument("--chunk-bytes")
+        .type(Integer.class)
+        .setDefault(16 * 1024);
     Namespace ns = null;
     try {
       ns = parser.parseArgs(args);
@@ -44,9 +208,74 @@ public class Benchmark {
     }
     this.uri = URI.create(ns.getString("uri"));
     this.concurrency = ns.getInt("concurrency");
+    this.scenario = ns.getString("scenario");
+    if (scenario.equals("idle") && System.getProperty("metering") == null) {
+      // Measure bare connections, -Dmetering=true to include the metering wrappers
+      Metrics.metering(false);
+    }
+    this.bulkStreams = ns.getInt("bulk_streams");
+    this.bulkBytes = ns.getInt("bulk_bytes");
+    this.connections = ns.getInt("connections");
+    this.timeoutMillis = ns.getLong("timeout");
+    final Double hedgePercentile = ns.getDouble("hedge");
+    if (hedgePercentile != null && connections < 2) {
+      parser.handleError(new ArgumentParserException(
+          "--hedge sends the copy on another connection and needs --connections 2 or more",
+          parser));
+      System.exit(1);
+    }
+    this.hedging = hedgePercentile == null ? null : new HedgingPolicy(hedgePercentile);
+    this.durationSeconds = ns.getLong("duration");
+    this.path = ns.getString("path");
+    this.uploadBytes = ns.getLong("upload_bytes");
+    this.chunkBytes = ns.getInt("chunk_bytes");
+    this.trace = ns.getString("trace");
+    this.speed = ns.getDouble("speed");
+    this.headers = ns.getInt("headers");
+    this.headerValueBytes = ns.getInt("header_value_bytes");
+    this.headerCardinality = HeaderWorkload.Cardinality.valueOf(
+        ns.getString("header_cardinality").toUpperCase());
+    this.headerRotation = ns.getInt("header_rotation");
+    this.jfr = ns.getString("jfr");
+    if (jfr != null && !FlightRecorder.available()) {
+      parser.handleError(new ArgumentParserException(
+          "--jfr needs the JFR events, build with the jfr profile on JDK 11+", parser));
+      System.exit(1);
+    }
+    this.idleConnections = ns.getInt("idle_connections");
+    this.localAddresses = ns.getInt("local_addresses");
+    this.handshakes = ns.getInt("handshakes");
+    this.soak = ns.getBoolean("soak");
+    this.soakPeriod = ns.getLong("soak_period");
+    this.rotateAge = ns.getLong("rotate_age");
+    this.rotateRequests = ns.getLong("rotate_requests");
+    this.searchSlo = ns.getDouble("search_slo");
+    this.searchPercentile = ns.getDouble("search_percentile");
+    this.searchMax = ns.getInt("search_max");
+    this.searchWarmup = ns.getLong("search_warmup");
+    this.searchWindow = ns.getLong("search_window");
+    WireMeter.frameTraceSampleRate(ns.getDouble("frame_trace"));
+    final Integer headerTableSize = ns.getInt("header_table_size");
+    if (headerTableSize != null) {
+      // Read by the in-process server
+      System.setProperty("headerTableSize", String.valueOf(headerTableSize));
+    }
   }
 
   public static void main(final String... args) throws Exception {
+    final Benchmark benchmark = new Benchmark(args);
+
+    if (benchmark.jfr != null) {
+      FlightRecorder.instance().start(new File(benchmark.jfr));
+      // Write the recording on System.exit and on interrupt
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          FlightRecorder.instance().stop();
+        }
+      });
+    }
+
     Executors.newSingleThreadExecutor().submit(new Callable<Object>() {
       @Override
       public Object call() throws Exception {
@@ -57,47 +286,275 @@ public class Benchmark {
 
     Thread.sleep(1000);
 
-    new Benchmark(args).run();
+    benchmark.run();
+  }
+
+  private static AsyncDriver.RequestFactory get(final String path) {
+    return new AsyncDriver.RequestFactory() {
+      @Override
+      public FullHttpRequest newRequest() {
+        return new DefaultFullHttpRequest(HTTP_1_1, GET, path);
+      }
+    };
+  }
+
+  /**
+   * Report HPACK header block bytes and encode and decode time per request for one direction.
+   */
+  private static void perOpHpack(final ProgressMeter meter, final String direction,
+                                 final HpackMeter encoder, final HpackMeter decoder) {
+    meter.perOp(direction + "-hpack-bytes", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return encoder.encodedBytes();
+      }
+    });
+    meter.perOp(direction + "-encode-ns", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return encoder.encodeNanos();
+      }
+    });
+    meter.perOp(direction + "-decode-ns", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return decoder.decodeNanos();
+      }
+    });
+  }
+
+  /**
+   * Report socket bytes, flushes, transport writes and frames per request as seen by the client,
+   * and the bytes and flushes per second on both sides.
+   */
+  private static void wireMetrics(final ProgressMeter meter) {
+    final WireMeter client = WireMeter.CLIENT;
+    final WireMeter server = WireMeter.SERVER;
+    meter.perOp("wire-bytes-out", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.bytesWritten();
+      }
+    });
+    meter.perOp("wire-bytes-in", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.bytesRead();
+      }
+    });
+    meter.perOp("writes", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.writes();
+      }
+    });
+    meter.perOp("flushes", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.flushes();
+      }
+    });
+    meter.perOp("frames-out", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.framesWritten();
+      }
+    });
+    meter.perOp("frames-in", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.framesRead();
+      }
+    });
+    meter.perOp("data-frames-in", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.framesRead(WireMeter.FrameType.DATA);
+      }
+    });
+    meter.perOp("window-updates-out", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.framesWritten(WireMeter.FrameType.WINDOW_UPDATE);
+      }
+    });
+    meter.perSecond("client-bytes-out", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.bytesWritten();
+      }
+    });
+    meter.perSecond("client-flushes", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.flushes();
+      }
+    });
+    meter.perSecond("server-bytes-out", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return server.bytesWritten();
+      }
+    });
+    meter.perSecond("server-flushes", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return server.flushes();
+      }
+    });
   }
 
   private void run() throws Exception {
-    this.meter = new ProgressMeter();
+    final Http2Client client = new Http2Client(uri, connections);
 
-    final Http2Client client = new Http2Client(uri);
-    final Queue<Request> requests = new ArrayDeque<>();
+    if (scenario.equals("priority")) {
+      new PriorityScenario(client, concurrency, bulkStreams, bulkBytes, timeoutMillis)
+          .run(durationSeconds);
+      client.close();
+      System.exit(0);
+    }
 
-    for (int i = 0; i < concurrency; i++) {
-      requests.add(Request.send(client));
+    if (scenario.equals("echo")) {
+      new EchoScenario(client, concurrency, uploadBytes, chunkBytes, timeoutMillis)
+          .run(durationSeconds);
+      client.close();
+      System.exit(0);
     }
 
-    while (true) {
-      final Request request = requests.poll();
-      request.response.sync().get().release();
-      requests.add(Request.send(client));
-      meter.inc(1, request.durationNanos());
+    if (scenario.equals("idle")) {
+      new IdleScenario(uri.getHost(), uri.getPort(), idleConnections, localAddresses, handshakes)
+          .run(durationSeconds);
+      client.close();
+      System.exit(0);
     }
-  }
 
-  private final static class Request {
-    private final long startNanos;
-    private final Promise<FullHttpResponse> response;
+    this.meter = new ProgressMeter();
+    meter.gauge("queued", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return client.queueDepth();
+      }
+    });
+    final StripedCounter errors = new StripedCounter();
+    meter.gauge("errors", new ProgressMeter.Gauge() {
+      @Override
+      public long value() {
+        return errors.sum();
+      }
+    });
+    final ResponseCache cache = Http2Server.CACHE;
+    if (cache != null) {
+      meter.gauge("cache-hits", new ProgressMeter.Gauge() {
+        @Override
+        public long value() {
+          return cache.hits();
+        }
+      });
+      meter.gauge("cache-misses", new ProgressMeter.Gauge() {
+        @Override
+        public long value() {
+          return cache.misses();
+        }
+      });
+      meter.gauge("cache-evictions", new ProgressMeter.Gauge() {
+        @Override
+        public long value() {
+          return cache.evictions();
+        }
+      });
+    }
+    if (hedging != null) {
+      meter.gauge("hedged", new ProgressMeter.Gauge() {
+        @Override
+        public long value() {
+          return hedging.hedgedCount();
+        }
+      });
+    }
+    perOpHpack(meter, "req", HpackMeter.CLIENT, HpackMeter.SERVER);
+    perOpHpack(meter, "resp", HpackMeter.SERVER, HpackMeter.CLIENT);
+    wireMetrics(meter);
+    meter.report(EventLoopMonitor.REPORT);
 
-    private Request(final long startNanos, final Promise<FullHttpResponse> response) {
-      this.startNanos = startNanos;
-      this.response = response;
+    final ProgressMeter.Phase queuePhase = meter.phase("queue");
+    final ProgressMeter.Phase headersPhase = meter.phase("headers");
+    final ProgressMeter.Phase firstBytePhase = meter.phase("first-byte");
+    final ProgressMeter.Phase bodyPhase = meter.phase("body");
+    final ProgressMeter.Phase totalPhase = meter.phase("total");
+    client.timingListener(new StreamTimings.Listener() {
+      @Override
+      public void streamCompleted(final StreamTimings timings) {
+        queuePhase.record(timings.queueNanos());
+        headersPhase.record(timings.headersNanos());
+        if (timings.hasData()) {
+          firstBytePhase.record(timings.firstByteNanos());
+          bodyPhase.record(timings.bodyNanos());
+        }
+        totalPhase.record(timings.totalNanos());
+      }
+    });
+
+    final TraceReader traceReader = trace == null ? null : new TraceReader(new File(trace));
+    if (traceReader != null && speed > 0) {
+      try {
+        new TraceReplay(client, meter, errors, timeoutMillis)
+            .replay(traceReader, speed, TimeUnit.SECONDS.toNanos(durationSeconds));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Cannot replay " + trace + ": " + e.getMessage());
+        System.exit(1);
+      }
+      meter.finish();
+      client.close();
+      System.exit(0);
+    }
+
+    AsyncDriver.RequestFactory requests;
+    if (traceReader != null) {
+      requests = TraceReplay.requestFactory(traceReader);
+    } else if (path != null) {
+      requests = get(path);
+    } else {
+      requests = SAMPLE_REQUEST;
+    }
+    if (headers > 0) {
+      requests = new HeaderWorkload(requests, headers, headerValueBytes, headerCardinality,
+                                    headerRotation);
     }
 
+    if (searchSlo != null) {
+      new SaturationSearch(client, requests, meter, errors, timeoutMillis, searchPercentile,
+                           searchSlo, searchMax, searchWarmup, searchWindow).run();
+      meter.finish();
+      client.close();
+      System.exit(0);
+    }
 
-    public long durationNanos() {
-      return System.nanoTime() - startNanos;
+    SoakMonitor soakMonitor = null;
+    if (soak) {
+      final ConnectionRotation rotation = new ConnectionRotation(
+          rotateAge, rotateRequests, timeoutMillis == 0 ? 60000 : timeoutMillis);
+      client.rotate(rotation);
+      soakMonitor = new SoakMonitor(meter, client, rotation, soakPeriod);
     }
 
-    public static Request send(final Http2Client client) {
-      final ByteBuf content = copiedBuffer("sample data".getBytes(UTF_8));
-      final FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, POST, "/foo", content);
-      request.headers().add(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
-      final Promise<FullHttpResponse> response = client.send(request);
-      return new Request(System.nanoTime(), response);
+    final AsyncDriver driver = new AsyncDriver(client, requests, meter, errors,
+                                               timeoutMillis, hedging);
+    driver.start(concurrency);
+    if (soakMonitor != null) {
+      soakMonitor.start();
+    }
+
+    if (durationSeconds == 0) {
+      // Run until interrupted
+      new CountDownLatch(1).await();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+    driver.stop(timeoutMillis == 0 ? 10000 : timeoutMillis, TimeUnit.MILLISECONDS);
+    if (soakMonitor != null) {
+      soakMonitor.stop();
     }
+    meter.finish();
+    client.close();
+    System.exit(0);
   }
 }
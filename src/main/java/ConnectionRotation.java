@@ -0,0 +1,65 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When to replace a client connection: before its stream ids run out, and optionally after a
+ * maximum age or number of requests. A replacement is connected and initialized before the old
+ * connection stops taking requests, and the old connection is closed with GOAWAY once its
+ * outstanding requests have completed.
+ */
+public final class ConnectionRotation {
+
+  /**
+   * Stream ids left when a connection is replaced regardless of age and requests: at a million
+   * requests per second, about a minute to connect a replacement and drain.
+   */
+  static final int DEFAULT_STREAM_ID_HEADROOM = 1 << 26;
+
+  private final long maxAgeNanos;
+  private final long maxRequests;
+  private final int streamIdHeadroom;
+  private final long drainTimeoutMillis;
+
+  private final StripedCounter rotations = new StripedCounter();
+
+  /**
+   * @param maxAgeSeconds      Replace connections older than this, 0 for no limit.
+   * @param maxRequests        Replace connections after this many requests, 0 for no limit.
+   * @param drainTimeoutMillis How long to wait for outstanding requests on a replaced connection.
+   */
+  public ConnectionRotation(final long maxAgeSeconds, final long maxRequests,
+                            final long drainTimeoutMillis) {
+    this(maxAgeSeconds, maxRequests, DEFAULT_STREAM_ID_HEADROOM, drainTimeoutMillis);
+  }
+
+  public ConnectionRotation(final long maxAgeSeconds, final long maxRequests,
+                            final int streamIdHeadroom, final long drainTimeoutMillis) {
+    this.maxAgeNanos = TimeUnit.SECONDS.toNanos(maxAgeSeconds);
+    this.maxRequests = maxRequests;
+    this.streamIdHeadroom = streamIdHeadroom;
+    this.drainTimeoutMillis = drainTimeoutMillis;
+  }
+
+  /**
+   * True if the connection should be replaced now.
+   */
+  boolean due(final Http2ClientConnectionHandler connection) {
+    return connection.streamIdsRemaining() < streamIdHeadroom
+           || (maxAgeNanos > 0 && connection.ageNanos() > maxAgeNanos)
+           || (maxRequests > 0 && connection.streamsStarted() >= maxRequests);
+  }
+
+  long drainTimeoutMillis() {
+    return drainTimeoutMillis;
+  }
+
+  void rotated() {
+    rotations.inc();
+  }
+
+  /**
+   * Number of connections replaced so far.
+   */
+  public long rotations() {
+    return rotations.sum();
+  }
+}
@@ -0,0 +1,89 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * Streams large uploads to the server's echo endpoint, which writes every frame back as it
+ * arrives, and reports the sustained throughput in each direction together with heap and direct
+ * memory use.
+ */
+public class EchoScenario {
+
+  private final Http2Client client;
+  private final int concurrency;
+  private final long uploadBytes;
+  private final ByteBuf chunk;
+  private final long timeoutMillis;
+
+  private final StripedCounter completed = new StripedCounter();
+  private final StripedCounter errors = new StripedCounter();
+  private volatile boolean running = true;
+
+  public EchoScenario(final Http2Client client, final int concurrency, final long uploadBytes,
+                      final int chunkBytes, final long timeoutMillis) {
+    this.client = client;
+    this.concurrency = concurrency;
+    this.uploadBytes = uploadBytes;
+    this.chunk = Unpooled.unreleasableBuffer(
+        Unpooled.directBuffer(chunkBytes).writeZero(chunkBytes));
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @param durationSeconds Seconds to run, 0 to run until interrupted.
+   */
+  public void run(final long durationSeconds) throws InterruptedException {
+    final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+    for (int i = 0; i < concurrency; i++) {
+      upload();
+    }
+
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long lastTime = System.nanoTime();
+    long lastRead = 0;
+    long lastWritten = 0;
+    while (durationSeconds == 0 || System.nanoTime() < end) {
+      Thread.sleep(1000);
+      final long time = System.nanoTime();
+      final long read = client.dataBytesRead();
+      final long written = client.dataBytesWritten();
+      final double seconds = (time - lastTime) / 1e9;
+      System.out.printf("up %,10.1f MB/s. down %,10.1f MB/s. %,d uploads, %,d errors. " +
+                        "heap %,d MB. direct %,d MB.\n",
+                        (written - lastWritten) / (1024 * 1024 * seconds),
+                        (read - lastRead) / (1024 * 1024 * seconds),
+                        completed.sum(), errors.sum(),
+                        memory.getHeapMemoryUsage().getUsed() / (1024 * 1024),
+                        Metrics.directMemoryUsed() / (1024 * 1024));
+      System.out.flush();
+      lastTime = time;
+      lastRead = read;
+      lastWritten = written;
+    }
+    running = false;
+  }
+
+  private void upload() {
+    client.upload(HelloWorldHttp2Handler.ECHO_PATH, chunk.duplicate(), uploadBytes, timeoutMillis)
+        .addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+          @Override
+          public void operationComplete(final Future<FullHttpResponse> future) {
+            if (future.isSuccess()) {
+              future.getNow().release();
+              completed.inc();
+            } else {
+              errors.inc();
+            }
+            if (running) {
+              upload();
+            }
+          }
+        });
+  }
+}
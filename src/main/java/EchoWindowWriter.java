@@ -0,0 +1,103 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
+import io.netty.handler.codec.http2.Http2HeadersEncoder;
+
+/**
+ * Paces echo streams through their own inbound flow control window. While more than {@link
+ * #STREAM_LIMIT} echoed bytes of a stream are waiting for the peer's window or the socket, the
+ * stream-level WINDOW_UPDATE frames of the inbound flow controller are withheld, and they are
+ * sent once the echo has caught up. The connection window and every other stream are unaffected,
+ * and the connection keeps reading, so the peer's own WINDOW_UPDATE frames always arrive.
+ *
+ * This is the connection's frame writer itself rather than a wrapper, and its per-stream state is
+ * only allocated once an echo stream opens, so connections that never echo pay nothing for it.
+ * A frame logger installed around it sees withheld updates when they are withheld, not when they
+ * are released.
+ *
+ * Must only be used from the channel's event loop.
+ */
+class EchoWindowWriter extends DefaultHttp2FrameWriter {
+
+  static final int STREAM_LIMIT = 256 * 1024;
+
+  private static class Stream {
+
+    private long pendingBytes;
+    private int withheldIncrement;
+  }
+
+  // Allocated on the first echo stream
+  private Map<Integer, Stream> streams;
+
+  EchoWindowWriter(final Http2HeadersEncoder headersEncoder) {
+    super(headersEncoder);
+  }
+
+  /**
+   * Start pacing a stream.
+   */
+  void open(final int streamId) {
+    if (streams == null) {
+      streams = new HashMap<>();
+    }
+    streams.put(streamId, new Stream());
+  }
+
+  /**
+   * Stop pacing a stream that has ended or was reset. Withheld window is dropped with it.
+   */
+  void close(final int streamId) {
+    if (streams != null) {
+      streams.remove(streamId);
+    }
+  }
+
+  /**
+   * Echoed bytes were handed to the codec.
+   */
+  void echoQueued(final int streamId, final int bytes) {
+    final Stream stream = stream(streamId);
+    if (stream != null) {
+      stream.pendingBytes += bytes;
+    }
+  }
+
+  /**
+   * Echoed bytes were written to the socket, release the withheld window once the stream is
+   * under the limit.
+   */
+  void echoWritten(final ChannelHandlerContext ctx, final int streamId, final int bytes) {
+    final Stream stream = stream(streamId);
+    if (stream == null) {
+      return;
+    }
+    stream.pendingBytes -= bytes;
+    if (stream.pendingBytes <= STREAM_LIMIT && stream.withheldIncrement > 0) {
+      final int increment = stream.withheldIncrement;
+      stream.withheldIncrement = 0;
+      super.writeWindowUpdate(ctx, ctx.newPromise(), streamId, increment);
+      ctx.flush();
+    }
+  }
+
+  @Override
+  public ChannelFuture writeWindowUpdate(final ChannelHandlerContext ctx,
+                                         final ChannelPromise promise, final int streamId,
+                                         final int windowSizeIncrement) {
+    final Stream stream = streamId == 0 ? null : stream(streamId);
+    if (stream != null && stream.pendingBytes > STREAM_LIMIT) {
+      stream.withheldIncrement += windowSizeIncrement;
+      return promise.setSuccess();
+    }
+    return super.writeWindowUpdate(ctx, promise, streamId, windowSizeIncrement);
+  }
+
+  private Stream stream(final int streamId) {
+    return streams == null ? null : streams.get(streamId);
+  }
+}
@@ -0,0 +1,227 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Measures how far behind the event loops are. A probe task on every loop reschedules itself
+ * every {@link #PROBE_INTERVAL_MILLIS}; the delay between when it was due and when it ran is the
+ * time a task or timer waits for the loop. Each probe also samples the loop's pending task count,
+ * and the loop thread's CPU time is sampled to tell a busy loop from a blocked or idle one.
+ *
+ * Loops of all monitored groups in the process are registered here, so the benchmark can report
+ * the client and server side together. A group's loops are unregistered when it terminates.
+ */
+public class EventLoopMonitor {
+
+  static final long PROBE_INTERVAL_MILLIS = 10;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private static final List<Loop> LOOPS = new CopyOnWriteArrayList<>();
+
+  /**
+   * The probe state and statistics of one event loop.
+   */
+  public static class Loop implements Runnable {
+
+    private final String name;
+    private final EventExecutor executor;
+    private final Recorder intervalLag = new Recorder(3);
+    private final Histogram totalLag = new Histogram(3);
+    private long totalLagNanos;
+    private Histogram interval;
+
+    private long dueNanos;
+    private volatile long threadId = -1;
+    private volatile int pendingTasks;
+    private volatile int maxPendingTasks;
+    private long lastCpuNanos;
+    private long lastSampleNanos = System.nanoTime();
+
+    Loop(final String name, final EventExecutor executor) {
+      this.name = name;
+      this.executor = executor;
+    }
+
+    private void schedule() {
+      dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL_MILLIS);
+      executor.schedule(this, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The probe, runs on the event loop.
+     */
+    @Override
+    public void run() {
+      final long lag = Math.max(0, System.nanoTime() - dueNanos);
+      intervalLag.recordValue(lag);
+      synchronized (totalLag) {
+        totalLag.recordValue(lag);
+        totalLagNanos += lag;
+      }
+      if (threadId == -1) {
+        threadId = Thread.currentThread().getId();
+      }
+      if (executor instanceof SingleThreadEventExecutor) {
+        final int pending = ((SingleThreadEventExecutor) executor).pendingTasks();
+        pendingTasks = pending;
+        if (pending > maxPendingTasks) {
+          maxPendingTasks = pending;
+        }
+        if (FlightRecorder.enabled()) {
+          FlightRecorder.instance().eventLoopQueue(name, pending);
+        }
+      }
+      if (!executor.isShuttingDown()) {
+        schedule();
+      }
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public int pendingTasks() {
+      return pendingTasks;
+    }
+
+    /**
+     * CPU time used by the loop thread, -1 if not known yet.
+     */
+    public long cpuNanos() {
+      final long id = threadId;
+      return id == -1 ? -1 : THREADS.getThreadCpuTime(id);
+    }
+
+    /**
+     * Scheduling delay of all probes since the loop was registered.
+     */
+    public Histogram totalLag() {
+      synchronized (totalLag) {
+        return totalLag.copy();
+      }
+    }
+
+    /**
+     * Sum of the scheduling delay of all probes since the loop was registered.
+     */
+    public long totalLagNanos() {
+      synchronized (totalLag) {
+        return totalLagNanos;
+      }
+    }
+
+    /**
+     * Print the probe delay, queue and CPU use since the previous call. Only one reporter may
+     * call this.
+     */
+    void print() {
+      interval = intervalLag.getIntervalHistogram(interval);
+      final long now = System.nanoTime();
+      final long cpuNanos = cpuNanos();
+      final double busy = cpuNanos == -1 || lastCpuNanos == 0
+                          ? 0 : 100.0 * (cpuNanos - lastCpuNanos) / (now - lastSampleNanos);
+      lastCpuNanos = cpuNanos;
+      lastSampleNanos = now;
+      final int maxPending = maxPendingTasks;
+      maxPendingTasks = 0;
+      System.out.printf("  %-10s lag p50 %,10.3f p99 %,10.3f max %,10.3f ms. " +
+                        "pending %,d (max %,d). busy %5.1f%%\n",
+                        name,
+                        Metrics.millis(interval.getValueAtPercentile(50)),
+                        Metrics.millis(interval.getValueAtPercentile(99)),
+                        Metrics.millis(interval.getMaxValue()),
+                        pendingTasks, maxPending, busy);
+    }
+  }
+
+  private EventLoopMonitor() {
+  }
+
+  /**
+   * Start probing every loop of a group. Loops are named {@code <name>-<index>}.
+   */
+  public static void monitor(final String name, final EventLoopGroup group) {
+    final List<Loop> loops = new ArrayList<>();
+    int i = 0;
+    for (final EventExecutor executor : group) {
+      loops.add(new Loop(name + '-' + i++, executor));
+    }
+    LOOPS.addAll(loops);
+    for (final Loop loop : loops) {
+      loop.schedule();
+    }
+    group.terminationFuture().addListener(new FutureListener<Object>() {
+      @Override
+      public void operationComplete(final Future<Object> future) {
+        LOOPS.removeAll(loops);
+      }
+    });
+  }
+
+  public static List<Loop> loops() {
+    return LOOPS;
+  }
+
+  /**
+   * Prints one line per loop every interval.
+   */
+  public static final ProgressMeter.Report REPORT = new ProgressMeter.Report() {
+    @Override
+    public void print() {
+      for (final Loop loop : LOOPS) {
+        loop.print();
+      }
+    }
+  };
+
+  /**
+   * Render the lifetime statistics of all loops in the Prometheus text format.
+   */
+  public static String metrics() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("# TYPE event_loop_lag_seconds summary\n");
+    for (final Loop loop : LOOPS) {
+      final Histogram lag = loop.totalLag();
+      for (final double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+        sb.append(String.format(Locale.ROOT,
+                                "event_loop_lag_seconds{loop=\"%s\",quantile=\"%s\"} %.9f\n",
+                                loop.name, quantile,
+                                lag.getValueAtPercentile(quantile * 100) / 1e9));
+      }
+      sb.append(String.format(Locale.ROOT, "event_loop_lag_seconds_sum{loop=\"%s\"} %.9f\n",
+                              loop.name, loop.totalLagNanos() / 1e9));
+      sb.append(String.format(Locale.ROOT, "event_loop_lag_seconds_count{loop=\"%s\"} %d\n",
+                              loop.name, lag.getTotalCount()));
+    }
+    sb.append("# TYPE event_loop_lag_max_seconds gauge\n");
+    for (final Loop loop : LOOPS) {
+      sb.append(String.format(Locale.ROOT, "event_loop_lag_max_seconds{loop=\"%s\"} %.9f\n",
+                              loop.name, loop.totalLag().getMaxValue() / 1e9));
+    }
+    sb.append("# TYPE event_loop_pending_tasks gauge\n");
+    for (final Loop loop : LOOPS) {
+      sb.append(String.format(Locale.ROOT, "event_loop_pending_tasks{loop=\"%s\"} %d\n",
+                              loop.name, loop.pendingTasks()));
+    }
+    sb.append("# TYPE event_loop_cpu_seconds_total counter\n");
+    for (final Loop loop : LOOPS) {
+      sb.append(String.format(Locale.ROOT, "event_loop_cpu_seconds_total{loop=\"%s\"} %.9f\n",
+                              loop.name, Math.max(0, loop.cpuNanos()) / 1e9));
+    }
+    return sb.toString();
+  }
+}
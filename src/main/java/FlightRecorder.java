@@ -0,0 +1,115 @@
+import java.io.File;
+
+/**
+ * Optional Java Flight Recorder integration: custom events for stream lifecycles and event loop
+ * task queues, so that latency outliers can be lined up against GC, safepoints and I/O in a single
+ * timeline.
+ *
+ * The events themselves live in {@code src/jfr/java}, which is only compiled by the {@code jfr}
+ * profile on JDK 11 and later. Without them every method here is a no-op, and {@link #enabled()}
+ * lets callers skip collecting event data altogether.
+ */
+public abstract class FlightRecorder {
+
+  private static final String IMPLEMENTATION = "JfrFlightRecorder";
+
+  private static final FlightRecorder INSTANCE = load();
+
+  private volatile boolean recording;
+
+  public static FlightRecorder instance() {
+    return INSTANCE;
+  }
+
+  /**
+   * True while a recording started with {@link #start(File)} is running.
+   */
+  public static boolean enabled() {
+    return INSTANCE.recording;
+  }
+
+  /**
+   * True if this build includes the JFR events, i.e. {@link #start(File)} can record.
+   */
+  public static boolean available() {
+    return INSTANCE.getClass().getName().equals(IMPLEMENTATION);
+  }
+
+  private static FlightRecorder load() {
+    try {
+      return (FlightRecorder) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException | LinkageError e) {
+      return new FlightRecorder() {
+        @Override
+        protected void startRecording(final File file) {
+          throw new UnsupportedOperationException(
+              "JFR events not available, build with the jfr profile on JDK 11+");
+        }
+
+        @Override
+        protected void stopRecording() {
+        }
+
+        @Override
+        public void clientStream(final StreamTimings timings) {
+        }
+
+        @Override
+        public void serverStream(final int streamId, final String kind, final long bytes,
+                                 final long startNanos, final long writtenNanos,
+                                 final long endNanos) {
+        }
+
+        @Override
+        public void eventLoopQueue(final String name, final int pendingTasks) {
+        }
+      };
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Start recording to a file.
+   */
+  public void start(final File file) {
+    startRecording(file);
+    recording = true;
+  }
+
+  /**
+   * Stop recording and write the recording file.
+   */
+  public void stop() {
+    if (recording) {
+      recording = false;
+      stopRecording();
+    }
+  }
+
+  protected abstract void startRecording(File file);
+
+  protected abstract void stopRecording();
+
+  /**
+   * A client stream completed: stream id, response size and phase timings.
+   */
+  public abstract void clientStream(StreamTimings timings);
+
+  /**
+   * A server response was written.
+   *
+   * @param kind         How the response was produced, e.g. "cached" or "bytes".
+   * @param startNanos   When the request was complete.
+   * @param writtenNanos When the response had been handed to the codec.
+   * @param endNanos     When the last frame of the response was written to the socket.
+   */
+  public abstract void serverStream(int streamId, String kind, long bytes, long startNanos,
+                                    long writtenNanos, long endNanos);
+
+  /**
+   * Number of tasks waiting in an event loop's queue, sampled by the {@link EventLoopMonitor}
+   * probes.
+   */
+  public abstract void eventLoopQueue(String name, int pendingTasks);
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+
+/**
+ * Adds a configurable set of headers to each request to exercise HPACK: a number of headers with
+ * values of a given size whose cardinality is either static (identical on every request, fully
+ * indexed after the first), rotating (cycling through a fixed number of variants that compete for
+ * the dynamic table) or unique (fresh random values on every request, like trace ids and
+ * cookies).
+ */
+public class HeaderWorkload implements AsyncDriver.RequestFactory {
+
+  public enum Cardinality {
+    STATIC, ROTATING, UNIQUE
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final AsyncDriver.RequestFactory requests;
+  private final int headers;
+  private final int valueBytes;
+  private final Cardinality cardinality;
+  private final int rotation;
+
+  private final String[] names;
+  private final String[][] variants;
+  private final AtomicLong counter = new AtomicLong();
+
+  public HeaderWorkload(final AsyncDriver.RequestFactory requests, final int headers,
+                        final int valueBytes, final Cardinality cardinality, final int rotation) {
+    this.requests = requests;
+    this.headers = headers;
+    this.valueBytes = valueBytes;
+    this.cardinality = cardinality;
+    this.rotation = rotation;
+    this.names = new String[headers];
+    for (int i = 0; i < headers; i++) {
+      names[i] = "x-bench-" + i;
+    }
+    final int variantCount = cardinality == Cardinality.STATIC ? 1 : rotation;
+    this.variants = new String[variantCount][headers];
+    for (int v = 0; v < variantCount; v++) {
+      for (int i = 0; i < headers; i++) {
+        variants[v][i] = randomValue();
+      }
+    }
+  }
+
+  @Override
+  public FullHttpRequest newRequest() {
+    final FullHttpRequest request = requests.newRequest();
+    switch (cardinality) {
+      case STATIC:
+      case ROTATING:
+        final String[] values = variants[(int) (counter.getAndIncrement() % variants.length)];
+        for (int i = 0; i < headers; i++) {
+          request.headers().add(names[i], values[i]);
+        }
+        break;
+      case UNIQUE:
+        for (int i = 0; i < headers; i++) {
+          request.headers().add(names[i], randomValue());
+        }
+        break;
+    }
+    return request;
+  }
+
+  private String randomValue() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final char[] value = new char[valueBytes];
+    for (int i = 0; i < valueBytes; i++) {
+      value[i] = HEX[random.nextInt(HEX.length)];
+    }
+    return new String(value);
+  }
+}
@@ -0,0 +1,60 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when to hedge a request: once it has been outstanding for longer than a percentile of
+ * the latencies observed during the last interval.
+ */
+public class HedgingPolicy {
+
+  private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double percentile;
+  private final Recorder latencies = new Recorder(3);
+  private final AtomicLong lastUpdate = new AtomicLong(System.nanoTime());
+  private final StripedCounter hedged = new StripedCounter();
+
+  private Histogram interval;
+  private volatile long delayNanos;
+
+  public HedgingPolicy(final double percentile) {
+    this.percentile = percentile;
+  }
+
+  public void record(final long latencyNanos) {
+    latencies.recordValue(latencyNanos);
+  }
+
+  /**
+   * The hedging delay, or 0 if no latencies have been recorded yet.
+   */
+  public long delayNanos() {
+    final long now = System.nanoTime();
+    final long last = lastUpdate.get();
+    if (now - last >= UPDATE_INTERVAL_NANOS && lastUpdate.compareAndSet(last, now)) {
+      update();
+    }
+    return delayNanos;
+  }
+
+  private synchronized void update() {
+    interval = latencies.getIntervalHistogram(interval);
+    if (interval.getTotalCount() > 0) {
+      delayNanos = Math.max(1, interval.getValueAtPercentile(percentile));
+    }
+  }
+
+  void hedged() {
+    hedged.inc();
+  }
+
+  /**
+   * Total number of hedged requests sent.
+   */
+  public long hedgedCount() {
+    return hedged.sum();
+  }
+}
@@ -16,6 +16,7 @@
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
@@ -32,8 +33,10 @@ import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
- * HTTP handler that responds with a "Hello World"
+ * HTTP handler that responds with a "Hello World". Stateless, one instance can be shared by all
+ * connections.
  */
+@ChannelHandler.Sharable
 public class HelloWorldHttp1Handler extends SimpleChannelInboundHandler<HttpRequest> {
 
   @Override
@@ -13,25 +13,37 @@
  * the License.
  */
 
+import java.util.HashSet;
+import java.util.Set;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.HttpServerUpgradeHandler;
 import io.netty.handler.codec.http2.AbstractHttp2ConnectionHandler;
 import io.netty.handler.codec.http2.DefaultHttp2Connection;
 import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
-import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersEncoder;
 import io.netty.handler.codec.http2.DefaultHttp2InboundFlowController;
 import io.netty.handler.codec.http2.DefaultHttp2OutboundFlowController;
 import io.netty.handler.codec.http2.Http2Connection;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2FrameReader;
+import io.netty.handler.codec.http2.Http2FrameWriter;
 import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersDecoder;
+import io.netty.handler.codec.http2.Http2InboundFrameLogger;
+import io.netty.handler.codec.http2.Http2OutboundFrameLogger;
 import io.netty.util.CharsetUtil;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
 import static io.netty.buffer.Unpooled.copiedBuffer;
 import static io.netty.buffer.Unpooled.unreleasableBuffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
 import static io.netty.util.internal.logging.InternalLogLevel.INFO;
 
 /**
@@ -39,22 +51,119 @@ import static io.netty.util.internal.logging.InternalLogLevel.INFO;
  */
 public class HelloWorldHttp2Handler extends AbstractHttp2ConnectionHandler {
 
-  private static final Http2FrameLogger logger = new Http2FrameLogger(
-      INFO, InternalLoggerFactory.getInstance(Http2ClientConnectionHandler.class));
+  private static final Http2FrameLogger logger = WireMeter.SERVER.frameLogger(
+      INFO, InternalLoggerFactory.getInstance(HelloWorldHttp2Handler.class));
   static final ByteBuf
       RESPONSE_BYTES =
       unreleasableBuffer(copiedBuffer("Hello World", CharsetUtil.UTF_8));
 
+  /**
+   * Requests for {@code /bytes/<n>} are answered with a body of n bytes.
+   */
+  static final String BYTES_PATH = "/bytes/";
+  private static final int BULK_CHUNK_SIZE = 1024 * 1024;
+  private static final ByteBuf BULK_BYTES =
+      unreleasableBuffer(wrappedBuffer(new byte[BULK_CHUNK_SIZE]));
+
+  /**
+   * Renders cacheable responses: "Hello World", or {@code /bytes/<n>} bodies up to one chunk.
+   */
+  private static final ResponseCache.Loader LOADER = new ResponseCache.Loader() {
+    @Override
+    public ResponseCache.Entry load(final String path) {
+      final Http2Headers headers = DefaultHttp2Headers.newBuilder().status("200").build();
+      if (path.startsWith(BYTES_PATH)) {
+        final int size = bytesSize(path);
+        if (size < 0 || size > BULK_CHUNK_SIZE) {
+          return null;
+        }
+        return new ResponseCache.Entry(headers, wrappedBuffer(new byte[size]));
+      }
+      return new ResponseCache.Entry(headers, RESPONSE_BYTES.duplicate());
+    }
+  };
+
+  /**
+   * The body size requested by a {@code /bytes/<n>} path, -1 if n is not a non-negative int.
+   */
+  static int bytesSize(final String path) {
+    try {
+      final int size = Integer.parseInt(path.substring(BYTES_PATH.length()));
+      return size < 0 ? -1 : size;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Requests to {@code /echo} are answered by streaming every DATA frame back as it arrives.
+   */
+  static final String ECHO_PATH = "/echo";
+
+  /**
+   * Requests to {@code /metrics} are answered with the event loop statistics of this process.
+   */
+  static final String METRICS_PATH = "/metrics";
+
+  private final ResponseCache cache;
+
+  /**
+   * Paces each echo stream's upload by its outbound progress.
+   */
+  private final EchoWindowWriter echoWindow;
+
+  private Set<Integer> echoStreams;
+
   public HelloWorldHttp2Handler() {
-    this(new DefaultHttp2Connection(true));
+    this((ResponseCache) null);
+  }
+
+  /**
+   * @param cache Cache of complete responses for requests without a body, or null to render every
+   *              response.
+   */
+  public HelloWorldHttp2Handler(ResponseCache cache) {
+    this(new DefaultHttp2Connection(true), cache);
   }
 
-  private HelloWorldHttp2Handler(Http2Connection connection) {
+  private HelloWorldHttp2Handler(Http2Connection connection, ResponseCache cache) {
+    this(connection, cache,
+         new EchoWindowWriter(HpackMeter.SERVER.encoder(new DefaultHttp2HeadersEncoder())));
+  }
+
+  private HelloWorldHttp2Handler(Http2Connection connection, ResponseCache cache,
+                                 EchoWindowWriter echoWindow) {
     super(connection,
-          new DefaultHttp2FrameReader(),
-          new DefaultHttp2FrameWriter(),
+          frameReader(),
+          frameWriter(echoWindow),
           new DefaultHttp2InboundFlowController(connection),
           new DefaultHttp2OutboundFlowController(connection));
+    this.cache = cache;
+    this.echoWindow = echoWindow;
+  }
+
+  /**
+   * The frame reader and writer are logged only while frames are counted or traced.
+   */
+  private static Http2FrameReader frameReader() {
+    final Http2FrameReader reader = new DefaultHttp2FrameReader(headersDecoder());
+    return WireMeter.frameLogging() ? new Http2InboundFrameLogger(reader, logger) : reader;
+  }
+
+  private static Http2FrameWriter frameWriter(final Http2FrameWriter writer) {
+    return WireMeter.frameLogging() ? new Http2OutboundFrameLogger(writer, logger) : writer;
+  }
+
+  /**
+   * An HPACK decoder with the dynamic table size configured with -DheaderTableSize, which is
+   * advertised to clients in SETTINGS_HEADER_TABLE_SIZE. Metered if metering is on.
+   */
+  private static Http2HeadersDecoder headersDecoder() {
+    final Http2HeadersDecoder decoder = HpackMeter.SERVER.decoder(new LazyHeadersDecoder());
+    if (Http2Server.HEADER_TABLE_SIZE >= 0) {
+      decoder.maxHeaderTableSize(Http2Server.HEADER_TABLE_SIZE);
+    }
+    return decoder;
   }
 
   /**
@@ -74,26 +183,67 @@ public class HelloWorldHttp2Handler extends AbstractHttp2ConnectionHandler {
   }
 
   /**
-   * If receive a frame with end-of-stream set, send a pre-canned response.
+   * Echo every frame on {@code /echo} streams. Otherwise, if receive a frame with end-of-stream
+   * set, send a pre-canned response.
    */
   @Override
   public void onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
                          boolean endOfStream, boolean endOfSegment) throws Http2Exception {
-    if (endOfStream) {
-      sendResponse(ctx(), streamId, data.retain());
+    if (echoStreams != null && echoStreams.contains(streamId)) {
+      echo(streamId, data, endOfStream);
+    } else if (endOfStream) {
+      final long startNanos = FlightRecorder.enabled() ? System.nanoTime() : 0;
+      sendResponse(ctx(), streamId, data.retain(), startNanos);
     }
   }
 
   /**
-   * If receive a frame with end-of-stream set, send a pre-canned response.
+   * If receive a frame with end-of-stream set, send a pre-canned response, or a bulk body for
+   * {@code /bytes/<n>}.
+   *
+   * The stream priority carried by the HEADERS frame has already been applied to the stream by
+   * the time this is called, so the outbound flow controller splits the connection window between
+   * competing responses by weight.
    */
   @Override
   public void onHeadersRead(ChannelHandlerContext ctx, int streamId,
                             Http2Headers headers, int streamDependency, short weight,
                             boolean exclusive, int padding, boolean endStream, boolean endSegment)
       throws Http2Exception {
-    if (endStream) {
-      sendResponse(ctx(), streamId, RESPONSE_BYTES.duplicate());
+    if (!endStream && ECHO_PATH.equals(headers.path())) {
+      startEcho(streamId);
+    } else if (endStream) {
+      final long startNanos = FlightRecorder.enabled() ? System.nanoTime() : 0;
+      final String path = headers.path();
+      if (METRICS_PATH.equals(path)) {
+        sendMetrics(streamId);
+        return;
+      }
+      if (cache != null && path != null) {
+        final ResponseCache.Entry entry = cache.get(path, LOADER);
+        if (entry != null) {
+          sendCached(streamId, entry, startNanos);
+          return;
+        }
+      }
+      if (path != null && path.startsWith(BYTES_PATH)) {
+        final int size = bytesSize(path);
+        if (size < 0) {
+          sendStatus(streamId, "400");
+        } else {
+          sendBytes(streamId, size, startNanos);
+        }
+      } else {
+        sendResponse(ctx(), streamId, RESPONSE_BYTES.duplicate(), startNanos);
+      }
+    }
+  }
+
+  @Override
+  public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
+      throws Http2Exception {
+    if (echoStreams != null && echoStreams.remove(streamId)) {
+      echoWindow.close(streamId);
     }
   }
 
@@ -106,11 +256,123 @@ public class HelloWorldHttp2Handler extends AbstractHttp2ConnectionHandler {
   /**
    * Sends a "Hello World" DATA frame to the client.
    */
-  private void sendResponse(ChannelHandlerContext ctx, int streamId, ByteBuf payload) {
+  private void sendResponse(ChannelHandlerContext ctx, int streamId, ByteBuf payload,
+                            long startNanos) {
     // Send a frame for the response status
     Http2Headers headers = DefaultHttp2Headers.newBuilder().status("200").build();
     writeHeaders(ctx(), ctx().newPromise(), streamId, headers, 0, false, false);
 
-    writeData(ctx(), ctx().newPromise(), streamId, payload, 0, true, true);
+    final int size = payload.readableBytes();
+    final ChannelFuture done =
+        writeData(ctx(), ctx().newPromise(), streamId, payload, 0, true, true);
+    recordStream(streamId, "hello", size, startNanos, done);
+  }
+
+  /**
+   * Emits a server stream event once the last frame of the response has been written, if a
+   * flight recording is running.
+   */
+  private static void recordStream(final int streamId, final String kind, final long bytes,
+                                   final long startNanos, final ChannelFuture done) {
+    if (!FlightRecorder.enabled()) {
+      return;
+    }
+    final long writtenNanos = System.nanoTime();
+    done.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        FlightRecorder.instance().serverStream(streamId, kind, bytes, startNanos, writtenNanos,
+                                               System.nanoTime());
+      }
+    });
+  }
+
+  /**
+   * Sends the response headers of an echo stream right away, the body follows the request.
+   */
+  private void startEcho(int streamId) {
+    if (echoStreams == null) {
+      echoStreams = new HashSet<>();
+    }
+    echoStreams.add(streamId);
+    echoWindow.open(streamId);
+    Http2Headers headers = DefaultHttp2Headers.newBuilder().status("200").build();
+    writeHeaders(ctx(), ctx().newPromise(), streamId, headers, 0, false, false);
+  }
+
+  /**
+   * Writes an inbound DATA frame back on the same stream. While too many echoed bytes of the
+   * stream are waiting for the flow control window or the socket, its WINDOW_UPDATE frames are
+   * withheld, so the upload is paced per stream without ever stopping to read.
+   */
+  private void echo(final int streamId, ByteBuf data, boolean endOfStream) {
+    if (endOfStream) {
+      echoStreams.remove(streamId);
+      echoWindow.close(streamId);
+    }
+    final int size = data.readableBytes();
+    echoWindow.echoQueued(streamId, size);
+    final ChannelPromise promise = ctx().newPromise();
+    promise.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        echoWindow.echoWritten(ctx(), streamId, size);
+      }
+    });
+    writeData(ctx(), promise, streamId, data.retain(), 0, endOfStream, endOfStream);
+  }
+
+  /**
+   * Sends a response without a body.
+   */
+  private void sendStatus(int streamId, String status) {
+    Http2Headers headers = DefaultHttp2Headers.newBuilder().status(status).build();
+    writeHeaders(ctx(), ctx().newPromise(), streamId, headers, 0, true, true);
+  }
+
+  /**
+   * Sends the event loop statistics in the Prometheus text format. Never cached.
+   */
+  private void sendMetrics(int streamId) {
+    Http2Headers headers = DefaultHttp2Headers.newBuilder()
+        .status("200")
+        .set("content-type", "text/plain; version=0.0.4")
+        .build();
+    writeHeaders(ctx(), ctx().newPromise(), streamId, headers, 0, false, false);
+    writeData(ctx(), ctx().newPromise(), streamId,
+              copiedBuffer(EventLoopMonitor.metrics(), CharsetUtil.UTF_8), 0, true, true);
+  }
+
+  /**
+   * Sends a cached response: the shared headers and a duplicate of the cached body.
+   */
+  private void sendCached(int streamId, ResponseCache.Entry entry, long startNanos) {
+    final ByteBuf body = entry.body();
+    final int size = body.readableBytes();
+    ChannelFuture done =
+        writeHeaders(ctx(), ctx().newPromise(), streamId, entry.headers(), 0, size == 0, false);
+    if (size > 0) {
+      done = writeData(ctx(), ctx().newPromise(), streamId, body, 0, true, true);
+    }
+    recordStream(streamId, "cached", size, startNanos, done);
+  }
+
+  /**
+   * Sends a body of the requested size, in chunks that the flow controller interleaves with other
+   * streams according to their priority.
+   */
+  private void sendBytes(int streamId, int size, long startNanos) {
+    Http2Headers headers = DefaultHttp2Headers.newBuilder().status("200").build();
+    ChannelFuture done =
+        writeHeaders(ctx(), ctx().newPromise(), streamId, headers, 0, size == 0, false);
+
+    int remaining = size;
+    while (remaining > 0) {
+      final int chunk = Math.min(remaining, BULK_CHUNK_SIZE);
+      remaining -= chunk;
+      done = writeData(ctx(), ctx().newPromise(), streamId, BULK_BYTES.slice(0, chunk), 0,
+                       remaining == 0, remaining == 0);
+    }
+    recordStream(streamId, "bytes", size, startNanos, done);
   }
 }
@@ -0,0 +1,121 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersDecoder;
+import io.netty.handler.codec.http2.Http2HeadersEncoder;
+
+/**
+ * Counts header blocks, HPACK encoded bytes and the time spent encoding and decoding them, via
+ * {@link Http2HeadersEncoder} and {@link Http2HeadersDecoder} wrappers installed in the frame
+ * writer and reader of each connection while {@link Metrics#metering()} is on.
+ */
+public class HpackMeter {
+
+  public static final HpackMeter CLIENT = new HpackMeter();
+  public static final HpackMeter SERVER = new HpackMeter();
+
+  private final StripedCounter encodedBlocks = new StripedCounter();
+  private final StripedCounter encodedBytes = new StripedCounter();
+  private final StripedCounter encodeNanos = new StripedCounter();
+  private final StripedCounter decodedBlocks = new StripedCounter();
+  private final StripedCounter decodedBytes = new StripedCounter();
+  private final StripedCounter decodeNanos = new StripedCounter();
+
+  /**
+   * A metered encoder, or {@code delegate} itself when metering is off.
+   */
+  public Http2HeadersEncoder encoder(final Http2HeadersEncoder delegate) {
+    return Metrics.metering() ? new Encoder(delegate) : delegate;
+  }
+
+  /**
+   * A metered decoder, or {@code delegate} itself when metering is off.
+   */
+  public Http2HeadersDecoder decoder(final Http2HeadersDecoder delegate) {
+    return Metrics.metering() ? new Decoder(delegate) : delegate;
+  }
+
+  public long encodedBlocks() {
+    return encodedBlocks.sum();
+  }
+
+  public long encodedBytes() {
+    return encodedBytes.sum();
+  }
+
+  public long encodeNanos() {
+    return encodeNanos.sum();
+  }
+
+  public long decodedBlocks() {
+    return decodedBlocks.sum();
+  }
+
+  public long decodedBytes() {
+    return decodedBytes.sum();
+  }
+
+  public long decodeNanos() {
+    return decodeNanos.sum();
+  }
+
+  private class Encoder implements Http2HeadersEncoder {
+
+    private final Http2HeadersEncoder delegate;
+
+    Encoder(final Http2HeadersEncoder delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void encodeHeaders(final Http2Headers headers, final ByteBuf buffer)
+        throws Http2Exception {
+      final int writerIndex = buffer.writerIndex();
+      final long start = System.nanoTime();
+      delegate.encodeHeaders(headers, buffer);
+      encodeNanos.add(System.nanoTime() - start);
+      encodedBytes.add(buffer.writerIndex() - writerIndex);
+      encodedBlocks.inc();
+    }
+
+    @Override
+    public void maxHeaderTableSize(final int size) throws Http2Exception {
+      delegate.maxHeaderTableSize(size);
+    }
+
+    @Override
+    public int maxHeaderTableSize() {
+      return delegate.maxHeaderTableSize();
+    }
+  }
+
+  private class Decoder implements Http2HeadersDecoder {
+
+    private final Http2HeadersDecoder delegate;
+
+    Decoder(final Http2HeadersDecoder delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Http2Headers decodeHeaders(final ByteBuf headerBlock) throws Http2Exception {
+      final int size = headerBlock.readableBytes();
+      final long start = System.nanoTime();
+      final Http2Headers headers = delegate.decodeHeaders(headerBlock);
+      decodeNanos.add(System.nanoTime() - start);
+      decodedBytes.add(size);
+      decodedBlocks.inc();
+      return headers;
+    }
+
+    @Override
+    public void maxHeaderTableSize(final int size) {
+      delegate.maxHeaderTableSize(size);
+    }
+
+    @Override
+    public int maxHeaderTableSize() {
+      return delegate.maxHeaderTableSize();
+    }
+  }
+}
@@ -14,10 +14,19 @@
  */
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -26,6 +35,9 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http2.Http2OrHttpChooser.SelectedProtocol;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.Promise;
 
 public final class Http2Client implements AutoCloseable {
@@ -35,15 +47,31 @@ public final class Http2Client implements AutoCloseable {
   private final boolean ssl;
 
   private final SslContext sslCtx;
-  private final Http2ClientConnectionHandler connectionHandler;
+  // Replaced in place by the rotation, the number of connections never changes
+  private final List<Http2ClientConnectionHandler> connectionHandlers =
+      new CopyOnWriteArrayList<>();
   private final NioEventLoopGroup workerGroup;
-  private final Channel channel;
+  private final AtomicInteger next = new AtomicInteger();
+
+  // Replaced connections waiting for their outstanding requests, and the counters of closed ones
+  private final List<Http2ClientConnectionHandler> draining = new CopyOnWriteArrayList<>();
+  private long retiredBytesRead;
+  private long retiredBytesWritten;
+
+  private ScheduledExecutorService rotator;
+
+  private volatile StreamTimings.Listener timingListener;
 
   public Http2Client(final URI uri) throws Exception {
-    this(uri.getHost(), uri.getPort(), "https".equals(uri.getScheme()));
+    this(uri, 1);
+  }
+
+  public Http2Client(final URI uri, final int connections) throws Exception {
+    this(uri.getHost(), uri.getPort(), "https".equals(uri.getScheme()), connections);
   }
 
-  public Http2Client(final String host, final int port, final boolean ssl) throws Exception {
+  public Http2Client(final String host, final int port, final boolean ssl, final int connections)
+      throws Exception {
     this.host = host;
     this.port = port;
     this.ssl = ssl;
@@ -61,6 +89,17 @@ public final class Http2Client implements AutoCloseable {
 
     // XXX (dano): Http2Connection does not seem to be thread safe, use one thread only
     this.workerGroup = new NioEventLoopGroup(1);
+    EventLoopMonitor.monitor("client", workerGroup);
+
+    for (int i = 0; i < connections; i++) {
+      connectionHandlers.add(connect());
+    }
+  }
+
+  /**
+   * Open a connection and wait for the HTTP/2 upgrade and the SETTINGS exchange to complete.
+   */
+  private Http2ClientConnectionHandler connect() throws Exception {
     Http2ClientInitializer initializer = new Http2ClientInitializer(sslCtx);
 
     // Configure the client.
@@ -72,21 +111,277 @@ public final class Http2Client implements AutoCloseable {
     b.handler(initializer);
 
     // Start the client.
-    this.channel = b.connect().syncUninterruptibly().channel();
+    b.connect().syncUninterruptibly();
     System.out.println("Connected to [" + host + ':' + port + ']');
 
     // Wait for the HTTP/2 upgrade to occur.
-    this.connectionHandler = initializer.connectionHandler();
+    final Http2ClientConnectionHandler connectionHandler = initializer.connectionHandler();
     connectionHandler.awaitInitialization();
+    connectionHandler.timingListener(timingListener);
+    return connectionHandler;
+  }
+
+  /**
+   * Replace connections as the rotation policy demands, and connections that were closed or sent
+   * GOAWAY by the server. Checked every 100 ms on a separate thread, which connects the
+   * replacement before the old connection stops taking requests.
+   */
+  public void rotate(final ConnectionRotation rotation) {
+    rotator = Executors.newSingleThreadScheduledExecutor();
+    rotator.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          rotateDue(rotation);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    }, 100, 100, TimeUnit.MILLISECONDS);
+  }
+
+  private void rotateDue(final ConnectionRotation rotation) throws Exception {
+    for (int i = 0; i < connectionHandlers.size(); i++) {
+      final Http2ClientConnectionHandler old = connectionHandlers.get(i);
+      if (old.isActive() && !rotation.due(old)) {
+        continue;
+      }
+      final Http2ClientConnectionHandler replacement = connect();
+      draining.add(old);
+      connectionHandlers.set(i, replacement);
+      rotation.rotated();
+      old.drain(rotation.drainTimeoutMillis()).addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(final ChannelFuture future) {
+          retire(old);
+        }
+      });
+    }
+  }
+
+  private synchronized void retire(final Http2ClientConnectionHandler connection) {
+    retiredBytesRead += connection.dataBytesRead();
+    retiredBytesWritten += connection.dataBytesWritten();
+    draining.remove(connection);
+  }
+
+  /**
+   * Number of replaced connections still completing their outstanding requests.
+   */
+  public int drainingConnections() {
+    return draining.size();
   }
 
   @Override
   public void close() {
-    channel.close().syncUninterruptibly();
+    if (rotator != null) {
+      rotator.shutdownNow();
+    }
+    for (final Http2ClientConnectionHandler connection : connectionHandlers) {
+      connection.channel().close().syncUninterruptibly();
+    }
+    for (final Http2ClientConnectionHandler connection : draining) {
+      connection.channel().close().syncUninterruptibly();
+    }
     workerGroup.shutdownGracefully();
   }
 
+  /**
+   * The event loop of the client connections, e.g. to schedule work alongside them.
+   */
+  public EventExecutor executor() {
+    return workerGroup.next();
+  }
+
+  /**
+   * Pick the next active connection, round robin.
+   */
+  private Http2ClientConnectionHandler nextConnection() {
+    final int size = connectionHandlers.size();
+    final int start = next.getAndIncrement();
+    for (int i = 0; i < size; i++) {
+      final Http2ClientConnectionHandler handler =
+          connectionHandlers.get(((start + i) & Integer.MAX_VALUE) % size);
+      if (handler.isActive()) {
+        return handler;
+      }
+    }
+    return connectionHandlers.get((start & Integer.MAX_VALUE) % size);
+  }
+
+  /**
+   * Pick the next active connection other than {@code excluded}, or null if there is none.
+   */
+  private Http2ClientConnectionHandler nextConnection(final Http2ClientConnectionHandler excluded) {
+    final int size = connectionHandlers.size();
+    final int start = next.getAndIncrement();
+    for (int i = 0; i < size; i++) {
+      final Http2ClientConnectionHandler handler =
+          connectionHandlers.get(((start + i) & Integer.MAX_VALUE) % size);
+      if (handler != excluded && handler.isActive()) {
+        return handler;
+      }
+    }
+    return null;
+  }
+
   public Promise<FullHttpResponse> send(final FullHttpRequest request) {
-    return connectionHandler.send(request);
+    return nextConnection().send(request);
+  }
+
+  public Promise<FullHttpResponse> send(final FullHttpRequest request,
+                                        final StreamPriority priority) {
+    return nextConnection().send(request, priority);
+  }
+
+  /**
+   * Send a request that fails with a timeout and resets its stream if no response arrives within
+   * {@code timeoutMillis}.
+   */
+  public Promise<FullHttpResponse> send(final FullHttpRequest request,
+                                        final StreamPriority priority, final long timeoutMillis) {
+    return nextConnection().send(request, priority, timeoutMillis);
+  }
+
+  /**
+   * Send a request and, if it has not completed after the policy's hedging delay, send a copy on
+   * another connection. The first response wins and the other stream is cancelled. No copy is
+   * sent if there is no other active connection.
+   */
+  public Promise<FullHttpResponse> send(final FullHttpRequest request,
+                                        final StreamPriority priority, final long timeoutMillis,
+                                        final HedgingPolicy policy) {
+    final long delayNanos = policy.delayNanos();
+    final Http2ClientConnectionHandler primary = nextConnection();
+    if (delayNanos == 0) {
+      // No latency estimate yet
+      return primary.send(request, priority, timeoutMillis);
+    }
+    final FullHttpRequest copy = request.copy();
+    final Promise<FullHttpResponse> result = primary.executor().newPromise();
+    final Hedge hedge = new Hedge(result);
+    hedge.add(primary.send(request, priority, timeoutMillis));
+    primary.executor().schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isDone()) {
+          copy.release();
+          return;
+        }
+        final Http2ClientConnectionHandler secondary = nextConnection(primary);
+        if (secondary == null) {
+          copy.release();
+          return;
+        }
+        policy.hedged();
+        hedge.add(secondary.send(copy, priority, timeoutMillis));
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  /**
+   * Stream a request body of {@code size} bytes to {@code path} by repeatedly writing {@code
+   * chunk}, which is released when the upload completes. The response body is counted, not
+   * collected.
+   */
+  public Promise<FullHttpResponse> upload(final String path, final ByteBuf chunk, final long size,
+                                          final long timeoutMillis) {
+    return nextConnection().upload(path, chunk, size, timeoutMillis);
+  }
+
+  /**
+   * DATA payload bytes received on all connections.
+   */
+  public synchronized long dataBytesRead() {
+    long bytes = retiredBytesRead;
+    for (final Http2ClientConnectionHandler handler : connectionHandlers) {
+      bytes += handler.dataBytesRead();
+    }
+    for (final Http2ClientConnectionHandler handler : draining) {
+      bytes += handler.dataBytesRead();
+    }
+    return bytes;
+  }
+
+  /**
+   * DATA payload bytes written on all connections.
+   */
+  public synchronized long dataBytesWritten() {
+    long bytes = retiredBytesWritten;
+    for (final Http2ClientConnectionHandler handler : connectionHandlers) {
+      bytes += handler.dataBytesWritten();
+    }
+    for (final Http2ClientConnectionHandler handler : draining) {
+      bytes += handler.dataBytesWritten();
+    }
+    return bytes;
+  }
+
+  /**
+   * Set a listener to be notified on the event loop with the timings of every completed stream.
+   */
+  public void timingListener(final StreamTimings.Listener timingListener) {
+    this.timingListener = timingListener;
+    for (final Http2ClientConnectionHandler handler : connectionHandlers) {
+      handler.timingListener(timingListener);
+    }
+  }
+
+  /**
+   * Number of requests queued behind the peer's concurrent stream limit or channel backpressure.
+   */
+  public int queueDepth() {
+    int queueDepth = 0;
+    for (final Http2ClientConnectionHandler handler : connectionHandlers) {
+      queueDepth += handler.queueDepth();
+    }
+    return queueDepth;
+  }
+
+  /**
+   * Completes a result with the first successful attempt and cancels the others. Fails only when
+   * every attempt has failed.
+   */
+  private static class Hedge implements GenericFutureListener<Future<FullHttpResponse>> {
+
+    private final Promise<FullHttpResponse> result;
+    private final List<Promise<FullHttpResponse>> attempts = new ArrayList<>(2);
+    private int pending;
+
+    Hedge(final Promise<FullHttpResponse> result) {
+      this.result = result;
+    }
+
+    synchronized void add(final Promise<FullHttpResponse> attempt) {
+      attempts.add(attempt);
+      pending++;
+      attempt.addListener(this);
+    }
+
+    @Override
+    public void operationComplete(final Future<FullHttpResponse> future) {
+      final boolean last;
+      synchronized (this) {
+        last = --pending == 0;
+      }
+      if (future.isSuccess()) {
+        if (result.trySuccess(future.getNow())) {
+          cancelOthers(future);
+        } else {
+          future.getNow().release();
+        }
+      } else if (last) {
+        result.tryFailure(future.cause());
+      }
+    }
+
+    private synchronized void cancelOthers(final Future<FullHttpResponse> winner) {
+      for (final Promise<FullHttpResponse> attempt : attempts) {
+        if (attempt != winner) {
+          attempt.cancel(false);
+        }
+      }
+    }
   }
 }
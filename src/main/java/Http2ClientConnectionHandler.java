@@ -13,14 +13,24 @@
  * the License.
  */
 
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpMessage;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -32,16 +42,28 @@ import io.netty.handler.codec.http2.DefaultHttp2Connection;
 import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
 import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersDecoder;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersEncoder;
 import io.netty.handler.codec.http2.DefaultHttp2InboundFlowController;
 import io.netty.handler.codec.http2.DefaultHttp2OutboundFlowController;
 import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2FrameReader;
+import io.netty.handler.codec.http2.Http2FrameWriter;
 import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2InboundFrameLogger;
+import io.netty.handler.codec.http2.Http2OutboundFrameLogger;
 import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
+import static io.netty.handler.codec.http.HttpMethod.POST;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static io.netty.util.internal.logging.InternalLogLevel.INFO;
 
@@ -51,24 +73,99 @@ import static io.netty.util.internal.logging.InternalLogLevel.INFO;
  */
 public class Http2ClientConnectionHandler extends AbstractHttp2ConnectionHandler {
 
-  private static final Http2FrameLogger logger = new Http2FrameLogger(
+  private static final Http2FrameLogger logger = WireMeter.CLIENT.frameLogger(
       INFO, InternalLoggerFactory.getInstance(Http2ClientConnectionHandler.class));
 
   private final ChannelPromise initPromise;
-  private ByteBuf collectedData;
-  private ChannelHandlerContext ctx;
-  private ConcurrentMap<Integer, OutstandingRequest> outstanding = new ConcurrentHashMap<>();
+  private volatile ChannelHandlerContext ctx;
+  private volatile StreamScheduler<OutstandingRequest> scheduler;
+  private volatile boolean goingAway;
+  private volatile boolean draining;
+  private final long createdNanos = System.nanoTime();
+  private volatile StreamTimings.Listener timingListener;
+  private final Map<Integer, OutstandingRequest> outstanding = new HashMap<>();
 
-  private class OutstandingRequest {
+  /**
+   * Upload chunks written to the flow controller but not yet to the socket, per stream.
+   */
+  private static final int MAX_UPLOAD_CHUNKS_IN_FLIGHT = 4;
+
+  private volatile long dataBytesRead;
+  private volatile long dataBytesWritten;
+
+  /**
+   * A request body streamed by writing the same chunk repeatedly.
+   */
+  private static class Upload {
 
+    private final ByteBuf chunk;
+    private long remaining;
+    private int chunksInFlight;
+    private boolean released;
+
+    Upload(final ByteBuf chunk, final long size) {
+      this.chunk = chunk;
+      this.remaining = size;
+    }
+  }
+
+  private class OutstandingRequest implements GenericFutureListener<Future<FullHttpResponse>> {
+
+    private FullHttpRequest request;
+    private final StreamPriority priority;
+    private int streamId;
     private HttpResponseStatus status;
+    private ByteBuf collectedData;
+    private Upload upload;
+    private long bytesReceived;
+    private ScheduledFuture<?> deadline;
+    private final StreamTimings timings = new StreamTimings();
     private Promise<FullHttpResponse> promise = ctx.executor().newPromise();
     private HttpVersion version = HTTP_1_1;
 
+    OutstandingRequest(final FullHttpRequest request, final StreamPriority priority) {
+      this.request = request;
+      this.priority = priority;
+      this.timings.submitNanos = System.nanoTime();
+      promise.addListener(this);
+    }
+
     public void finish(final ByteBuf content) {
       final FullHttpResponse response = new DefaultFullHttpResponse(version, status,
                                                                     content.retain());
-      promise.setSuccess(response);
+      if (!promise.trySuccess(response)) {
+        response.release();
+      }
+    }
+
+    public void fail(final Throwable cause) {
+      releaseData();
+      promise.tryFailure(cause);
+    }
+
+    public void releaseData() {
+      if (collectedData != null) {
+        collectedData.release();
+        collectedData = null;
+      }
+      if (upload != null && !upload.released) {
+        upload.released = true;
+        upload.chunk.release();
+      }
+    }
+
+    /**
+     * Called on the event loop when the promise completes. If it was cancelled or timed out while
+     * the stream is still open, reset the stream.
+     */
+    @Override
+    public void operationComplete(final Future<FullHttpResponse> future) {
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+      if (!future.isSuccess()) {
+        cancel(this);
+      }
     }
   }
 
@@ -77,12 +174,36 @@ public class Http2ClientConnectionHandler extends AbstractHttp2ConnectionHandler
   }
 
   private Http2ClientConnectionHandler(ChannelPromise initPromise, Http2Connection connection) {
-    super(connection, new DefaultHttp2FrameReader(), new DefaultHttp2FrameWriter(),
-          new DefaultHttp2InboundFlowController(
-              connection), new DefaultHttp2OutboundFlowController(connection));
+    super(connection,
+          frameReader(),
+          frameWriter(),
+          new DefaultHttp2InboundFlowController(connection),
+          new DefaultHttp2OutboundFlowController(connection));
     this.initPromise = initPromise;
   }
 
+  /**
+   * The frame reader and writer are logged only while frames are counted or traced.
+   */
+  private static Http2FrameReader frameReader() {
+    final Http2FrameReader reader = new DefaultHttp2FrameReader(
+        HpackMeter.CLIENT.decoder(new DefaultHttp2HeadersDecoder()));
+    return WireMeter.frameLogging() ? new Http2InboundFrameLogger(reader, logger) : reader;
+  }
+
+  private static Http2FrameWriter frameWriter() {
+    final Http2FrameWriter writer = new DefaultHttp2FrameWriter(
+        HpackMeter.CLIENT.encoder(new DefaultHttp2HeadersEncoder()));
+    return WireMeter.frameLogging() ? new Http2OutboundFrameLogger(writer, logger) : writer;
+  }
+
+  /**
+   * Completes when the upgrade to HTTP/2 and the initial SETTINGS exchange are done.
+   */
+  public Future<Void> initFuture() {
+    return initPromise;
+  }
+
   /**
    * Wait for this handler to be added after the upgrade to HTTP/2, and for initial preface
    * handshake to complete.
@@ -120,58 +241,391 @@ public class Http2ClientConnectionHandler extends AbstractHttp2ConnectionHandler
     }
   }
 
+  /**
+   * The highest client-initiated (odd) stream id.
+   */
+  private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+  // Written on the event loop only, volatile so the rotation can watch it from other threads
   private volatile int streamIdCounter = 1;
 
   public Promise<FullHttpResponse> send(final FullHttpRequest request) {
-    boolean hasData = request.content().isReadable();
+    return send(request, StreamPriority.DEFAULT);
+  }
+
+  public Promise<FullHttpResponse> send(final FullHttpRequest request,
+                                        final StreamPriority priority) {
+    return send(request, priority, 0);
+  }
+
+  /**
+   * Send a request. Safe to call from any thread, the stream is opened on the event loop once the
+   * peer's concurrent stream limit and the channel writability allow it.
+   *
+   * If no response has arrived within {@code timeoutMillis} (0 for no deadline) the promise fails
+   * with a {@link TimeoutException} and the stream is reset. Cancelling the promise also resets
+   * the stream.
+   */
+  public Promise<FullHttpResponse> send(final FullHttpRequest request,
+                                        final StreamPriority priority, final long timeoutMillis) {
+    return send(new OutstandingRequest(request, priority), timeoutMillis);
+  }
+
+  private Promise<FullHttpResponse> send(final OutstandingRequest outstandingRequest,
+                                         final long timeoutMillis) {
+    if (timeoutMillis > 0) {
+      outstandingRequest.deadline = ctx.executor().schedule(new Runnable() {
+        @Override
+        public void run() {
+          outstandingRequest.promise.tryFailure(
+              new TimeoutException("No response within " + timeoutMillis + " ms"));
+        }
+      }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    if (ctx.executor().inEventLoop()) {
+      submit(outstandingRequest);
+    } else {
+      ctx.executor().execute(new Runnable() {
+        @Override
+        public void run() {
+          submit(outstandingRequest);
+        }
+      });
+    }
+    return outstandingRequest.promise;
+  }
+
+  /**
+   * Stream a request body of {@code size} bytes to {@code path} by repeatedly writing {@code
+   * chunk}. The response body is counted but not collected, so responses of any size can be
+   * received, and the request body is only produced as fast as the flow control window and the
+   * channel allow. The promise completes with an empty response at the end of the response
+   * stream.
+   */
+  public Promise<FullHttpResponse> upload(final String path, final ByteBuf chunk, final long size,
+                                          final long timeoutMillis) {
+    final FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, POST, path);
+    final OutstandingRequest outstandingRequest =
+        new OutstandingRequest(request, StreamPriority.DEFAULT);
+    outstandingRequest.upload = new Upload(chunk, size);
+    return send(outstandingRequest, timeoutMillis);
+  }
+
+  private void submit(final OutstandingRequest outstandingRequest) {
+    // A draining connection still takes requests sent just before it was rotated out, it only
+    // refuses them once its GOAWAY has been written
+    if (goingAway || !ctx.channel().isActive()) {
+      outstandingRequest.request.release();
+      outstandingRequest.request = null;
+      outstandingRequest.fail(new ClosedChannelException());
+      return;
+    }
+    scheduler.submit(outstandingRequest);
+  }
+
+  /**
+   * Reset the stream of an abandoned request and release its slot. Requests that are still queued
+   * are dropped when the scheduler reaches them.
+   */
+  private void cancel(final OutstandingRequest outstandingRequest) {
+    final int streamId = outstandingRequest.streamId;
+    if (streamId == 0 || outstanding.get(streamId) != outstandingRequest) {
+      return;
+    }
+    outstanding.remove(streamId);
+    outstandingRequest.releaseData();
+    writeRstStream(ctx, ctx.newPromise(), streamId, Http2Error.CANCEL.code());
+    ctx.flush();
+    streamClosed();
+  }
+
+  /**
+   * DATA payload bytes received on this connection.
+   */
+  public long dataBytesRead() {
+    return dataBytesRead;
+  }
+
+  /**
+   * DATA payload bytes written to the socket on this connection by uploads and request bodies
+   * (request bodies are counted when handed to the flow controller).
+   */
+  public long dataBytesWritten() {
+    return dataBytesWritten;
+  }
+
+  /**
+   * True while new requests can be sent on this connection.
+   */
+  public boolean isActive() {
+    final ChannelHandlerContext ctx = this.ctx;
+    return !goingAway && !draining && ctx != null && ctx.channel().isActive();
+  }
+
+  /**
+   * Number of streams this connection can still open before its stream ids run out.
+   */
+  public int streamIdsRemaining() {
+    return (MAX_STREAM_ID - streamIdCounter) / 2;
+  }
+
+  /**
+   * Number of streams opened on this connection.
+   */
+  public int streamsStarted() {
+    return (streamIdCounter - 1) / 2;
+  }
+
+  public long ageNanos() {
+    return System.nanoTime() - createdNanos;
+  }
+
+  /**
+   * Gracefully close this connection: stop being picked for new requests, let the outstanding
+   * ones and any submitted meanwhile complete, then send GOAWAY and close. Requests still
+   * outstanding after {@code timeoutMillis} fail when the connection is closed. Safe to call from
+   * any thread.
+   *
+   * @return The close future of the connection.
+   */
+  public ChannelFuture drain(final long timeoutMillis) {
+    final ChannelHandlerContext ctx = this.ctx;
+    draining = true;
+    ctx.executor().execute(new Runnable() {
+      @Override
+      public void run() {
+        closeIfDrained();
+      }
+    });
+    ctx.executor().schedule(new Runnable() {
+      @Override
+      public void run() {
+        ctx.close();
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    return ctx.channel().closeFuture();
+  }
+
+  private void closeIfDrained() {
+    if (!draining || !outstanding.isEmpty() || scheduler.queueDepth() != 0
+        || !ctx.channel().isActive()) {
+      return;
+    }
+    goingAway = true;
+    // No server-initiated streams were processed
+    writeGoAway(ctx, ctx.newPromise(), 0, Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER)
+        .addListener(ChannelFutureListener.CLOSE);
+    ctx.flush();
+  }
+
+  /**
+   * Release a stream slot, and complete a graceful close once the last stream is done.
+   */
+  private void streamClosed() {
+    scheduler.streamClosed();
+    if (draining) {
+      closeIfDrained();
+    }
+  }
+
+  public EventExecutor executor() {
+    return ctx.executor();
+  }
+
+  public Channel channel() {
+    return ctx.channel();
+  }
+
+  /**
+   * Number of requests waiting for a stream slot or for the channel to become writable.
+   */
+  public int queueDepth() {
+    final StreamScheduler<OutstandingRequest> scheduler = this.scheduler;
+    return scheduler == null ? 0 : scheduler.queueDepth();
+  }
+
+  private boolean start(final OutstandingRequest outstandingRequest) {
+    final FullHttpRequest request = outstandingRequest.request;
+    outstandingRequest.request = null;
+    if (outstandingRequest.promise.isDone()) {
+      // Timed out or cancelled while queued
+      request.release();
+      outstandingRequest.releaseData();
+      return false;
+    }
+    if (goingAway) {
+      // The server will not process new streams
+      request.release();
+      outstandingRequest.fail(new ClosedChannelException());
+      return false;
+    }
+    final Upload upload = outstandingRequest.upload;
+    boolean hasData = request.content().isReadable() || upload != null;
 
     // Convert and write the headers.
-    DefaultHttp2Headers.Builder headers = DefaultHttp2Headers.newBuilder();
+    DefaultHttp2Headers.Builder headers = DefaultHttp2Headers.newBuilder()
+        .method(request.method().name())
+        .path(request.uri());
     for (Map.Entry<String, String> entry : request.headers().entries()) {
       headers.add(entry.getKey(), entry.getValue());
     }
-    synchronized (this) {
-      streamIdCounter += 2;
-      final int streamId = streamIdCounter;
-//      System.err.println("send: " + streamId);
-      final OutstandingRequest outstandingRequest = new OutstandingRequest();
-      outstanding.put(streamId, outstandingRequest);
-      writeHeaders(ctx, ctx.newPromise(), streamId, headers.build(), 0, !hasData, false);
-      if (hasData) {
-        writeData(ctx, ctx.newPromise(), streamId, request.content(), 0, true, true);
+    if (streamIdCounter > MAX_STREAM_ID - 2) {
+      // Stream ids are never reused, this connection cannot open any more streams
+      goingAway = true;
+      request.release();
+      outstandingRequest.releaseData();
+      outstandingRequest.fail(new IllegalStateException("Stream ids exhausted"));
+      return false;
+    }
+    streamIdCounter += 2;
+    final int streamId = streamIdCounter;
+    outstandingRequest.streamId = streamId;
+    outstandingRequest.timings.streamId = streamId;
+    outstandingRequest.timings.writeNanos = System.nanoTime();
+    outstanding.put(streamId, outstandingRequest);
+    final StreamPriority priority = outstandingRequest.priority;
+    writeHeaders(ctx, writePromise(outstandingRequest), streamId, headers.build(),
+                 priority.streamDependency(), priority.weight(), priority.exclusive(), 0,
+                 !hasData, false);
+    if (upload != null) {
+      request.release();
+      pump(outstandingRequest);
+    } else if (hasData) {
+      dataBytesWritten += request.content().readableBytes();
+      writeData(ctx, writePromise(outstandingRequest), streamId, request.content(), 0, true,
+                true);
+    } else {
+      request.release();
+    }
+    return true;
+  }
+
+  /**
+   * A promise for writing a request's headers or body that fails the request if the write fails.
+   */
+  private ChannelPromise writePromise(final OutstandingRequest outstandingRequest) {
+    final ChannelPromise promise = ctx.newPromise();
+    promise.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(final ChannelFuture future) {
+        if (!future.isSuccess()) {
+          writeFailed(outstandingRequest, future.cause());
+        }
       }
-      return outstandingRequest.promise;
+    });
+    return promise;
+  }
+
+  /**
+   * Fail a request whose stream could not be written and release its stream slot.
+   */
+  private void writeFailed(final OutstandingRequest outstandingRequest, final Throwable cause) {
+    final int streamId = outstandingRequest.streamId;
+    if (outstanding.get(streamId) != outstandingRequest) {
+      // Already completed, failed or reset
+      return;
     }
+    // Remove first: failing the promise must not reset a stream the server may never have seen
+    outstanding.remove(streamId);
+    outstandingRequest.fail(cause);
+    streamClosed();
+  }
+
+  /**
+   * Write upload chunks while the stream is open, the channel is writable and fewer than {@link
+   * #MAX_UPLOAD_CHUNKS_IN_FLIGHT} chunks are waiting for the flow control window.
+   */
+  private void pump(final OutstandingRequest outstandingRequest) {
+    final Upload upload = outstandingRequest.upload;
+    final int streamId = outstandingRequest.streamId;
+    while (upload.remaining > 0 && upload.chunksInFlight < MAX_UPLOAD_CHUNKS_IN_FLIGHT &&
+           ctx.channel().isWritable() && outstanding.get(streamId) == outstandingRequest) {
+      final int size = (int) Math.min(upload.remaining, upload.chunk.readableBytes());
+      upload.remaining -= size;
+      upload.chunksInFlight++;
+      final boolean endStream = upload.remaining == 0;
+      final ChannelPromise promise = ctx.newPromise();
+      promise.addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(final ChannelFuture future) {
+          upload.chunksInFlight--;
+          if (future.isSuccess()) {
+            dataBytesWritten += size;
+            pump(outstandingRequest);
+          } else {
+            outstandingRequest.promise.tryFailure(future.cause());
+          }
+        }
+      });
+      final ByteBuf data = upload.chunk.slice(upload.chunk.readerIndex(), size).retain();
+      writeData(ctx, promise, streamId, data, 0, endStream, endStream);
+    }
+  }
+
+  private void finish(final int streamId, final ByteBuf content) {
+    final OutstandingRequest outstandingRequest = outstanding.remove(streamId);
+    if (outstandingRequest != null) {
+      final StreamTimings timings = outstandingRequest.timings;
+      timings.endNanos = System.nanoTime();
+      timings.bytes = outstandingRequest.upload != null
+                      ? outstandingRequest.bytesReceived
+                      : content.readableBytes();
+      final StreamTimings.Listener timingListener = this.timingListener;
+      if (timingListener != null) {
+        timingListener.streamCompleted(timings);
+      }
+      if (FlightRecorder.enabled()) {
+        FlightRecorder.instance().clientStream(timings);
+      }
+      outstandingRequest.finish(content);
+      streamClosed();
+    }
+  }
+
+  /**
+   * Set a listener to be notified with the timings of every completed stream.
+   */
+  public void timingListener(final StreamTimings.Listener timingListener) {
+    this.timingListener = timingListener;
   }
 
   @Override
   public void onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
                          boolean endOfStream, boolean endOfSegment) throws Http2Exception {
+    final OutstandingRequest outstandingRequest = outstanding.get(streamId);
+    if (outstandingRequest == null) {
+      return;
+    }
 
-    // Copy the data into the buffer.
-    int available = data.readableBytes();
-    if (collectedData == null) {
-      collectedData = ctx().alloc().buffer(available);
-      collectedData.writeBytes(data, data.readerIndex(), data.readableBytes());
-    } else {
-      // Expand the buffer
-      ByteBuf newBuffer = ctx().alloc().buffer(collectedData.readableBytes() + available);
-      newBuffer.writeBytes(collectedData);
-      newBuffer.writeBytes(data);
-      collectedData.release();
-      collectedData = newBuffer;
+    if (outstandingRequest.timings.firstDataNanos == 0) {
+      outstandingRequest.timings.firstDataNanos = System.nanoTime();
     }
+    dataBytesRead += data.readableBytes();
 
-    // If it's the last frame, print the complete message.
-    if (endOfStream) {
-//      System.out.println("Received message: " + collectedData.toString(CharsetUtil.UTF_8));
+    // Uploads only count the response body.
+    if (outstandingRequest.upload != null) {
+      outstandingRequest.bytesReceived += data.readableBytes();
+      if (endOfStream) {
+        finish(streamId, Unpooled.EMPTY_BUFFER);
+        outstandingRequest.releaseData();
+      }
+      return;
+    }
+
+    // Copy the data into the stream's buffer, streams may be interleaved.
+    if (outstandingRequest.collectedData == null) {
+      outstandingRequest.collectedData = ctx().alloc().buffer(data.readableBytes());
+    }
+    outstandingRequest.collectedData.writeBytes(data, data.readerIndex(), data.readableBytes());
 
-      final OutstandingRequest outstandingRequest = outstanding.remove(streamId);
-      outstandingRequest.finish(collectedData);
+    // If it's the last frame, complete the response.
+    if (endOfStream) {
+      final ByteBuf collectedData = outstandingRequest.collectedData;
+      outstandingRequest.collectedData = null;
+      finish(streamId, collectedData);
 
       // Free the data buffer.
       collectedData.release();
-      collectedData = null;
     }
   }
 
@@ -185,23 +639,121 @@ public class Http2ClientConnectionHandler extends AbstractHttp2ConnectionHandler
     }
     final OutstandingRequest outstandingRequest = outstanding.get(streamId);
     if (outstandingRequest != null) {
+      if (outstandingRequest.timings.headersNanos == 0) {
+        outstandingRequest.timings.headersNanos = System.nanoTime();
+      }
       for (Map.Entry<String, String> entry : headers.entries()) {
         if (outstandingRequest.status == null && entry.getKey().equals(":status")) {
           outstandingRequest.status = HttpResponseStatus.valueOf(Integer.valueOf(entry.getValue()));
         }
       }
+      if (endStream) {
+        finish(streamId, Unpooled.EMPTY_BUFFER);
+      }
     }
   }
 
   @Override
   public void onSettingsRead(ChannelHandlerContext ctx, Http2Settings settings)
       throws Http2Exception {
+    if (scheduler == null) {
+      scheduler = new StreamScheduler<>(
+          ctx.channel(), new StreamScheduler.Starter<OutstandingRequest>() {
+            @Override
+            public boolean start(final OutstandingRequest request) {
+              return Http2ClientConnectionHandler.this.start(request);
+            }
+          });
+    }
+    final Integer maxConcurrentStreams = settings.maxConcurrentStreams();
+    if (maxConcurrentStreams != null) {
+      scheduler.maxConcurrentStreams(maxConcurrentStreams);
+    }
     this.ctx = ctx;
     if (!initPromise.isDone()) {
       initPromise.setSuccess();
     }
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (scheduler != null && ctx.channel().isWritable()) {
+      for (final OutstandingRequest request : outstanding.values().toArray(
+          new OutstandingRequest[outstanding.size()])) {
+        if (request.upload != null) {
+          pump(request);
+        }
+      }
+      scheduler.drain();
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    final ClosedChannelException cause = new ClosedChannelException();
+    if (scheduler != null) {
+      for (final OutstandingRequest request : scheduler.clear()) {
+        request.request.release();
+        request.fail(cause);
+      }
+    }
+    // Clear first: failing a promise runs its listeners, which must not find the stream to reset
+    final List<OutstandingRequest> open = new ArrayList<>(outstanding.values());
+    outstanding.clear();
+    for (final OutstandingRequest request : open) {
+      request.fail(cause);
+    }
+    if (!initPromise.isDone()) {
+      initPromise.setFailure(cause);
+    }
+    super.channelInactive(ctx);
+  }
+
+  /**
+   * The server reset a stream, fail its request and release the stream slot.
+   */
+  @Override
+  public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
+      throws Http2Exception {
+    final OutstandingRequest outstandingRequest = outstanding.remove(streamId);
+    if (outstandingRequest != null) {
+      outstandingRequest.fail(
+          new IOException("Stream " + streamId + " reset by peer, error code " + errorCode));
+      streamClosed();
+    }
+  }
+
+  /**
+   * The server will not process streams above {@code lastStreamId}: fail those and every queued
+   * request, and stop accepting new ones. Streams up to {@code lastStreamId} may still complete.
+   */
+  @Override
+  public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
+                           ByteBuf debugData) throws Http2Exception {
+    goingAway = true;
+    final IOException cause = new IOException(
+        "GOAWAY received, last stream " + lastStreamId + ", error code " + errorCode);
+    // Fail the queue before releasing any stream slot, so that nothing queued is started
+    for (final OutstandingRequest request : scheduler.clear()) {
+      request.request.release();
+      request.fail(cause);
+    }
+    final List<OutstandingRequest> refused = new ArrayList<>();
+    final Iterator<Map.Entry<Integer, OutstandingRequest>> it = outstanding.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Integer, OutstandingRequest> entry = it.next();
+      if (entry.getKey() > lastStreamId) {
+        it.remove();
+        refused.add(entry.getValue());
+      }
+    }
+    for (final OutstandingRequest request : refused) {
+      request.fail(cause);
+      streamClosed();
+    }
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     if (!initPromise.isDone()) {
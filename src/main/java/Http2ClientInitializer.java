@@ -13,6 +13,7 @@
  * the License.
  */
 
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
@@ -40,6 +41,10 @@ public class Http2ClientInitializer extends ChannelInitializer<SocketChannel> {
   @Override
   public void initChannel(SocketChannel ch) throws Exception {
     connectionHandler = new Http2ClientConnectionHandler(ch.newPromise());
+    if (Metrics.metering()) {
+      // At the head of the pipeline to count the bytes and flushes that reach the socket
+      ch.pipeline().addLast(WireMeter.CLIENT.handler());
+    }
     if (sslCtx != null) {
       configureSsl(ch);
     } else {
@@ -71,7 +76,7 @@ public class Http2ClientInitializer extends ChannelInitializer<SocketChannel> {
     ch.pipeline().addLast(sourceCodec);
     ch.pipeline().addLast(upgradeHandler);
     ch.pipeline().addLast(new UpgradeRequestHandler());
-    ch.pipeline().addLast(new UserEventLogger());
+    ch.pipeline().addLast(USER_EVENT_LOGGER);
   }
 
   /**
@@ -92,15 +97,23 @@ public class Http2ClientInitializer extends ChannelInitializer<SocketChannel> {
     }
   }
 
+  private static final UserEventLogger USER_EVENT_LOGGER = new UserEventLogger();
+
   /**
-   * Class that logs any User Events triggered on this channel.
+   * Class that logs any User Events triggered on this channel. Stateless, one instance is shared
+   * by all connections. Removes itself once the upgrade has succeeded or was rejected.
    */
+  @ChannelHandler.Sharable
   private static class UserEventLogger extends ChannelHandlerAdapter {
 
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
       System.out.println("User Event Triggered: " + evt);
       super.userEventTriggered(ctx, evt);
+      if (evt == HttpClientUpgradeHandler.UpgradeEvent.UPGRADE_SUCCESSFUL ||
+          evt == HttpClientUpgradeHandler.UpgradeEvent.UPGRADE_REJECTED) {
+        ctx.pipeline().remove(ctx.name());
+      }
     }
   }
 }
@@ -26,12 +26,21 @@ public class Http2OrHttpHandler extends Http2OrHttpChooser {
 
   private static final int MAX_CONTENT_LENGTH = 1024 * 100;
 
+  private static final ChannelHandler HTTP1_HANDLER = new HelloWorldHttp1Handler();
+
+  private final ResponseCache cache;
+
   public Http2OrHttpHandler() {
-    this(MAX_CONTENT_LENGTH);
+    this(MAX_CONTENT_LENGTH, null);
+  }
+
+  public Http2OrHttpHandler(ResponseCache cache) {
+    this(MAX_CONTENT_LENGTH, cache);
   }
 
-  public Http2OrHttpHandler(int maxHttpContentLength) {
+  public Http2OrHttpHandler(int maxHttpContentLength, ResponseCache cache) {
     super(maxHttpContentLength);
+    this.cache = cache;
   }
 
   @Override
@@ -44,11 +53,11 @@ public class Http2OrHttpHandler extends Http2OrHttpChooser {
 
   @Override
   protected ChannelHandler createHttp1RequestHandler() {
-    return new HelloWorldHttp1Handler();
+    return HTTP1_HANDLER;
   }
 
   @Override
   protected ChannelHandler createHttp2RequestHandler() {
-    return new HelloWorldHttp2Handler();
+    return new HelloWorldHttp2Handler(cache);
   }
 }
@@ -36,6 +36,14 @@ public final class Http2Server {
 
   static final boolean SSL = System.getProperty("ssl") != null;
   static final int PORT = Integer.parseInt(System.getProperty("port", SSL ? "8443" : "8080"));
+  static final long CACHE_BYTES = Long.parseLong(System.getProperty("cache", "0"));
+  static final int HEADER_TABLE_SIZE =
+      Integer.parseInt(System.getProperty("headerTableSize", "-1"));
+
+  /**
+   * Response cache shared by all connections, null unless enabled with -Dcache=&lt;bytes&gt;.
+   */
+  static final ResponseCache CACHE = CACHE_BYTES > 0 ? new ResponseCache(CACHE_BYTES) : null;
 
   public static void main(String... args) throws Exception {
     // Configure SSL.
@@ -54,13 +62,14 @@ public final class Http2Server {
     // Configure the server.
     EventLoopGroup bossGroup = new NioEventLoopGroup(1);
     EventLoopGroup workerGroup = new NioEventLoopGroup(1);
+    EventLoopMonitor.monitor("server", workerGroup);
     try {
       ServerBootstrap b = new ServerBootstrap();
       b.option(ChannelOption.SO_BACKLOG, 1024);
       b.group(bossGroup, workerGroup)
           .channel(NioServerSocketChannel.class)
           .handler(new LoggingHandler(LogLevel.INFO))
-          .childHandler(new Http2ServerInitializer(sslCtx));
+          .childHandler(new Http2ServerInitializer(sslCtx, CACHE));
 
       Channel ch = b.bind(PORT).sync().channel();
 
@@ -16,6 +16,7 @@
 
 import java.util.Collections;
 
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
@@ -32,13 +33,23 @@ import io.netty.handler.ssl.SslContext;
 public class Http2ServerInitializer extends ChannelInitializer<SocketChannel> {
 
   private final SslContext sslCtx;
+  private final ResponseCache cache;
 
   public Http2ServerInitializer(SslContext sslCtx) {
+    this(sslCtx, null);
+  }
+
+  public Http2ServerInitializer(SslContext sslCtx, ResponseCache cache) {
     this.sslCtx = sslCtx;
+    this.cache = cache;
   }
 
   @Override
   public void initChannel(SocketChannel ch) {
+    if (Metrics.metering()) {
+      // At the head of the pipeline to count the bytes and flushes that reach the socket
+      ch.pipeline().addLast(WireMeter.SERVER.handler());
+    }
     if (sslCtx != null) {
       configureSsl(ch);
     } else {
@@ -50,33 +61,40 @@ public class Http2ServerInitializer extends ChannelInitializer<SocketChannel> {
    * Configure the pipeline for TLS NPN negotiation to HTTP/2.
    */
   private void configureSsl(SocketChannel ch) {
-    ch.pipeline().addLast(sslCtx.newHandler(ch.alloc()), new Http2OrHttpHandler());
+    ch.pipeline().addLast(sslCtx.newHandler(ch.alloc()), new Http2OrHttpHandler(cache));
   }
 
   /**
    * Configure the pipeline for a cleartext upgrade from HTTP to HTTP/2.
    */
-  private static void configureClearText(SocketChannel ch) {
+  private void configureClearText(SocketChannel ch) {
     HttpServerCodec sourceCodec = new HttpServerCodec();
     HttpServerUpgradeHandler.UpgradeCodec upgradeCodec =
-        new Http2ServerUpgradeCodec(new HelloWorldHttp2Handler());
+        new Http2ServerUpgradeCodec(new HelloWorldHttp2Handler(cache));
     HttpServerUpgradeHandler upgradeHandler =
         new HttpServerUpgradeHandler(sourceCodec, Collections.singletonList(upgradeCodec), 65536);
 
     ch.pipeline().addLast(sourceCodec);
     ch.pipeline().addLast(upgradeHandler);
-    ch.pipeline().addLast(new UserEventLogger());
+    ch.pipeline().addLast(USER_EVENT_LOGGER);
   }
 
+  private static final UserEventLogger USER_EVENT_LOGGER = new UserEventLogger();
+
   /**
-   * Class that logs any User Events triggered on this channel.
+   * Class that logs any User Events triggered on this channel. Stateless, one instance is shared
+   * by all connections. Removes itself once the upgrade is done.
    */
+  @ChannelHandler.Sharable
   private static class UserEventLogger extends ChannelHandlerAdapter {
 
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
       System.out.println("User Event Triggered: " + evt);
       ctx.fireUserEventTriggered(evt);
+      if (evt instanceof HttpServerUpgradeHandler.UpgradeEvent) {
+        ctx.pipeline().remove(ctx.name());
+      }
     }
   }
 }
@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * Opens many idle HTTP/2 connections and reports the heap and direct memory they hold.
+ *
+ * A single source address runs out of ephemeral ports at a few tens of thousands of connections,
+ * so connections are spread over the loopback addresses 127.0.0.1 to 127.0.0.n. Linux routes all
+ * of 127/8 to the loopback interface, other systems need the aliases configured. Both ends of
+ * every connection live in this process, so the reported footprint is that of a client and a
+ * server connection together, and the file descriptor limit must allow two per connection.
+ */
+public class IdleScenario {
+
+  private static final long HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * Counts a connection as established or failed exactly once, whichever of the handshake, the
+   * close and the timeout comes first. The timeout closes a connection that is still handshaking.
+   */
+  private class Handshake implements Runnable {
+
+    private final Channel channel;
+    private final Semaphore permits;
+    private final CountDownLatch done;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    Handshake(final Channel channel, final Semaphore permits, final CountDownLatch done) {
+      this.channel = channel;
+      this.permits = permits;
+      this.done = done;
+    }
+
+    void complete(final boolean success) {
+      if (!completed.compareAndSet(false, true)) {
+        return;
+      }
+      if (!success) {
+        failed.inc();
+      }
+      permits.release();
+      done.countDown();
+    }
+
+    @Override
+    public void run() {
+      if (!completed.get()) {
+        complete(false);
+        channel.close();
+      }
+    }
+  }
+
+  private final String host;
+  private final int port;
+  private final int connections;
+  private final int localAddresses;
+  private final int handshakes;
+
+  private final List<Channel> channels = new ArrayList<>();
+  private final StripedCounter failed = new StripedCounter();
+
+  /**
+   * @param localAddresses Number of loopback source addresses to spread the connections over.
+   * @param handshakes     Maximum number of connections being established at once.
+   */
+  public IdleScenario(final String host, final int port, final int connections,
+                      final int localAddresses, final int handshakes) {
+    this.host = host;
+    this.port = port;
+    this.connections = connections;
+    this.localAddresses = localAddresses;
+    this.handshakes = handshakes;
+  }
+
+  public void run(final long holdSeconds) throws InterruptedException {
+    final long heapBefore = usedHeapAfterGc();
+    final long directBefore = Metrics.directMemoryUsed();
+
+    final NioEventLoopGroup group = new NioEventLoopGroup();
+    final Bootstrap bootstrap = new Bootstrap()
+        .group(group)
+        .channel(NioSocketChannel.class)
+        .option(ChannelOption.SO_KEEPALIVE, true)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) HANDSHAKE_TIMEOUT_MILLIS);
+    final InetSocketAddress remoteAddress = new InetSocketAddress(host, port);
+
+    final Semaphore permits = new Semaphore(handshakes);
+    final CountDownLatch done = new CountDownLatch(connections);
+    final long startNanos = System.nanoTime();
+    for (int i = 0; i < connections; i++) {
+      permits.acquire();
+      final Http2ClientInitializer initializer = new Http2ClientInitializer(null);
+      final InetSocketAddress localAddress =
+          new InetSocketAddress("127.0.0." + (1 + i % localAddresses), 0);
+      final ChannelFuture connect =
+          bootstrap.clone().handler(initializer).connect(remoteAddress, localAddress);
+      channels.add(connect.channel());
+      final Handshake handshake = new Handshake(connect.channel(), permits, done);
+      connect.addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(final ChannelFuture future) {
+          if (!future.isSuccess()) {
+            handshake.complete(false);
+            return;
+          }
+          // The upgrade and SETTINGS exchange complete the handshake
+          initializer.connectionHandler().initFuture().addListener(
+              new GenericFutureListener<Future<Void>>() {
+                @Override
+                public void operationComplete(final Future<Void> future) {
+                  handshake.complete(future.isSuccess());
+                }
+              });
+          // The connection handler only sees the close once the upgrade is done
+          future.channel().closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(final ChannelFuture future) {
+              handshake.complete(false);
+            }
+          });
+          future.channel().eventLoop().schedule(handshake, HANDSHAKE_TIMEOUT_MILLIS,
+                                                TimeUnit.MILLISECONDS);
+        }
+      });
+    }
+    done.await();
+    final double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+    final long heapAfter = usedHeapAfterGc();
+    final long directAfter = Metrics.directMemoryUsed();
+    final long established = connections - failed.sum();
+    System.out.printf("idle: %,d connections established (%,d failed) in %,.1f s, " +
+                      "%,.0f connections/s\n",
+                      established, failed.sum(), seconds, established / seconds);
+    System.out.printf("idle: heap %,d MB (%,d bytes per connection), " +
+                      "direct %,d MB (%,d bytes per connection), client and server side\n",
+                      (heapAfter - heapBefore) / (1024 * 1024),
+                      established == 0 ? 0 : (heapAfter - heapBefore) / established,
+                      (directAfter - directBefore) / (1024 * 1024),
+                      established == 0 ? 0 : (directAfter - directBefore) / established);
+    System.out.flush();
+
+    if (holdSeconds == 0) {
+      // Keep the connections open for inspection until interrupted
+      new CountDownLatch(1).await();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(holdSeconds));
+    for (final Channel channel : channels) {
+      channel.close();
+    }
+    group.shutdownGracefully();
+  }
+
+  /**
+   * Heap in use after a full collection. Run twice so that objects released by finalization in
+   * the first collection are reclaimed by the second.
+   */
+  private static long usedHeapAfterGc() throws InterruptedException {
+    for (int i = 0; i < 2; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
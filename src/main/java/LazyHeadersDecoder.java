@@ -0,0 +1,42 @@
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersDecoder;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersDecoder;
+
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_HEADER_TABLE_SIZE;
+
+/**
+ * Creates the HPACK decoder, and with it its dynamic table, on the first header block. A server
+ * connection upgraded from HTTP/1.1 gets its first request in the upgrade, so an idle one never
+ * decodes a block.
+ *
+ * Must only be used from the channel's event loop.
+ */
+class LazyHeadersDecoder implements Http2HeadersDecoder {
+
+  private Http2HeadersDecoder delegate;
+  private int maxHeaderTableSize = DEFAULT_HEADER_TABLE_SIZE;
+
+  @Override
+  public Http2Headers decodeHeaders(final ByteBuf headerBlock) throws Http2Exception {
+    if (delegate == null) {
+      delegate = new DefaultHttp2HeadersDecoder();
+      delegate.maxHeaderTableSize(maxHeaderTableSize);
+    }
+    return delegate.decodeHeaders(headerBlock);
+  }
+
+  @Override
+  public void maxHeaderTableSize(final int size) {
+    maxHeaderTableSize = size;
+    if (delegate != null) {
+      delegate.maxHeaderTableSize(size);
+    }
+  }
+
+  @Override
+  public int maxHeaderTableSize() {
+    return maxHeaderTableSize;
+  }
+}
@@ -0,0 +1,45 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Helpers shared by the reports: the metering switch, unit conversion and JVM memory readings.
+ */
+public class Metrics {
+
+  private static volatile boolean metering = !"false".equals(System.getProperty("metering"));
+
+  private Metrics() {
+  }
+
+  /**
+   * Whether new connections install the HPACK and wire metering wrappers. On unless started with
+   * -Dmetering=false or turned off, e.g. to measure the footprint of bare connections.
+   */
+  public static boolean metering() {
+    return metering;
+  }
+
+  public static void metering(final boolean enabled) {
+    metering = enabled;
+  }
+
+  /**
+   * Nanoseconds as fractional milliseconds, for printing.
+   */
+  public static double millis(final long nanos) {
+    return nanos / 1000000.d;
+  }
+
+  /**
+   * Bytes held by direct buffers, including those pooled by Netty, 0 if not reported by the JVM.
+   */
+  public static long directMemoryUsed() {
+    for (final BufferPoolMXBean pool :
+        ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        return pool.getMemoryUsed();
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,121 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Mixes bulk large-body streams with small high-priority requests on a single connection and
+ * reports the latency percentiles of the small requests.
+ */
+public class PriorityScenario {
+
+  private static final StreamPriority BULK_PRIORITY =
+      StreamPriority.weight(StreamPriority.MIN_WEIGHT);
+  private static final StreamPriority SMALL_PRIORITY =
+      StreamPriority.weight(StreamPriority.MAX_WEIGHT);
+
+  private final Http2Client client;
+  private final int concurrency;
+  private final int bulkStreams;
+  private final int bulkBytes;
+  private final long timeoutMillis;
+
+  private final Recorder smallLatency = new Recorder(3);
+  private final AtomicLong bulkReceived = new AtomicLong();
+  private final StripedCounter errors = new StripedCounter();
+  private volatile boolean running = true;
+
+  public PriorityScenario(final Http2Client client, final int concurrency, final int bulkStreams,
+                          final int bulkBytes, final long timeoutMillis) {
+    this.client = client;
+    this.concurrency = concurrency;
+    this.bulkStreams = bulkStreams;
+    this.bulkBytes = bulkBytes;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @param durationSeconds Seconds to run, 0 to run until interrupted.
+   */
+  public void run(final long durationSeconds) throws InterruptedException {
+    final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+    for (int i = 0; i < bulkStreams; i++) {
+      sendBulk();
+    }
+    for (int i = 0; i < concurrency; i++) {
+      sendSmall();
+    }
+
+    Histogram interval = null;
+    long lastTime = System.nanoTime();
+    long lastBulk = 0;
+    while (durationSeconds == 0 || System.nanoTime() < end) {
+      Thread.sleep(1000);
+      interval = smallLatency.getIntervalHistogram(interval);
+      final long time = System.nanoTime();
+      final long bulk = bulkReceived.get();
+      final double seconds = (time - lastTime) / 1e9;
+      System.out.printf("small: %,10d ops/s. p50 %,.3f p99 %,.3f p99.9 %,.3f max %,.3f ms. " +
+                        "bulk: %,10.1f MB/s. errors %,d\n",
+                        (long) (interval.getTotalCount() / seconds),
+                        Metrics.millis(interval.getValueAtPercentile(50)),
+                        Metrics.millis(interval.getValueAtPercentile(99)),
+                        Metrics.millis(interval.getValueAtPercentile(99.9)),
+                        Metrics.millis(interval.getMaxValue()),
+                        (bulk - lastBulk) / (1024 * 1024 * seconds),
+                        errors.sum());
+      System.out.flush();
+      lastTime = time;
+      lastBulk = bulk;
+    }
+    running = false;
+  }
+
+  private void sendBulk() {
+    client.send(new DefaultFullHttpRequest(HTTP_1_1, GET,
+                                           HelloWorldHttp2Handler.BYTES_PATH + bulkBytes),
+                BULK_PRIORITY, timeoutMillis)
+        .addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+          @Override
+          public void operationComplete(final Future<FullHttpResponse> future) {
+            if (future.isSuccess()) {
+              bulkReceived.addAndGet(future.getNow().content().readableBytes());
+              future.getNow().release();
+            } else {
+              errors.inc();
+            }
+            if (running) {
+              sendBulk();
+            }
+          }
+        });
+  }
+
+  private void sendSmall() {
+    final long startNanos = System.nanoTime();
+    client.send(new DefaultFullHttpRequest(HTTP_1_1, GET, "/"), SMALL_PRIORITY, timeoutMillis)
+        .addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+          @Override
+          public void operationComplete(final Future<FullHttpResponse> future) {
+            if (future.isSuccess()) {
+              future.getNow().release();
+              smallLatency.recordValue(System.nanoTime() - startNanos);
+            } else {
+              errors.inc();
+            }
+            if (running) {
+              sendSmall();
+            }
+          }
+        });
+  }
+}
@@ -1,8 +1,107 @@
+import org.HdrHistogram.Histogram;
+
 import java.util.ArrayDeque;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ProgressMeter {
 
+  /**
+   * A value sampled and printed alongside the throughput every interval.
+   */
+  public interface Gauge {
+
+    long value();
+  }
+
+  /**
+   * Prints additional lines every interval.
+   */
+  public interface Report {
+
+    void print();
+  }
+
+  /**
+   * A latency histogram printed as percentiles every interval.
+   */
+  public static class Phase {
+
+    private final String name;
+    private final ThreadLocalRecorder recorder = new ThreadLocalRecorder();
+    private Histogram interval;
+
+    Phase(final String name) {
+      this.name = name;
+    }
+
+    public void record(final long nanos) {
+      recorder.record(nanos);
+    }
+
+    private void swap() {
+      interval = recorder.intervalHistogram(interval);
+    }
+
+    private void print() {
+      if (interval.getTotalCount() == 0) {
+        return;
+      }
+      System.out.printf("  %-10s p50 %,10.3f p90 %,10.3f p99 %,10.3f p99.9 %,10.3f " +
+                        "max %,10.3f ms\n",
+                        name,
+                        Metrics.millis(interval.getValueAtPercentile(50)),
+                        Metrics.millis(interval.getValueAtPercentile(90)),
+                        Metrics.millis(interval.getValueAtPercentile(99)),
+                        Metrics.millis(interval.getValueAtPercentile(99.9)),
+                        Metrics.millis(interval.getMaxValue()));
+    }
+  }
+
+  /**
+   * A counter printed as its increase per operation or per second over each interval.
+   */
+  private static class PerOp {
+
+    private final Gauge counter;
+    private long last;
+
+    PerOp(final Gauge counter) {
+      this.counter = counter;
+    }
+  }
+
+  /**
+   * Accumulates the latencies of every interval completed while it is open, e.g. to measure one
+   * step of a load search.
+   */
+  public static class Window {
+
+    private final Histogram histogram = new Histogram(3);
+    private long nanos;
+
+    private synchronized void add(final Histogram interval, final long intervalNanos) {
+      histogram.add(interval);
+      nanos += intervalNanos;
+    }
+
+    /**
+     * Latencies recorded by the intervals in this window so far.
+     */
+    public synchronized Histogram histogram() {
+      return histogram.copy();
+    }
+
+    /**
+     * Operations per second over the intervals in this window so far.
+     */
+    public synchronized double throughput() {
+      return nanos == 0 ? 0 : histogram.getTotalCount() * 1e9 / nanos;
+    }
+  }
+
   static class Delta {
 
     Delta(final long ops, final long time, final long latency) {
@@ -16,18 +115,29 @@ public class ProgressMeter {
     public final long latency;
   }
 
-  private long lastRows = 0;
+  private long count = 0;
   private long lastTime = System.nanoTime();
-  private long lastLatency = 0;
   private final long interval = 1000;
 
   final private String unit;
 
-  final private AtomicLong latency = new AtomicLong();
-  final private AtomicLong operations = new AtomicLong();
+  final private ThreadLocalRecorder latencies = new ThreadLocalRecorder();
+  private Histogram intervalLatencies;
 
   final private ArrayDeque<Delta> deltas = new ArrayDeque<Delta>();
 
+  final private Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+
+  final private List<Phase> phases = new CopyOnWriteArrayList<Phase>();
+
+  final private Map<String, PerOp> perOps = new ConcurrentSkipListMap<String, PerOp>();
+
+  final private Map<String, PerOp> perSeconds = new ConcurrentSkipListMap<String, PerOp>();
+
+  final private List<Window> windows = new CopyOnWriteArrayList<Window>();
+
+  final private List<Report> reports = new CopyOnWriteArrayList<Report>();
+
   private volatile boolean run = true;
 
   private final Thread worker;
@@ -54,13 +164,20 @@ public class ProgressMeter {
   }
 
   private void progress() {
-    final long count = this.operations.get();
+    // Swap out the interval histograms first so that ops, latency and phases cover the same window
     final long time = System.nanoTime();
-    final long latency = this.latency.get();
+    intervalLatencies = latencies.intervalHistogram(intervalLatencies);
+    for (final Phase phase : phases) {
+      phase.swap();
+    }
 
-    final long delta = count - lastRows;
+    final long delta = intervalLatencies.getTotalCount();
     final long deltaTime = time - lastTime;
-    final long deltaLatency = latency - lastLatency;
+    final long deltaLatency = (long) (intervalLatencies.getMean() * delta);
+    count += delta;
+    for (final Window window : windows) {
+      window.add(intervalLatencies, deltaTime);
+    }
 
     deltas.add(new Delta(delta, deltaTime, deltaLatency));
 
@@ -82,13 +199,88 @@ public class ProgressMeter {
     final long averagedOperations = timeSum == 0 ? 0 : 1000000000 * opSum / timeSum;
     final double averageLatency = opSum == 0 ? 0 : latencySum / (1000000.d * opSum);
 
-    System.out.printf("%,10d (%,10d) %s/s. %,10.9f ms average latency. %,10d %s total.\n",
-                      operations, averagedOperations, unit, averageLatency, count, unit);
+    System.out.printf("%,10d (%,10d) %s/s. %,10.9f ms average latency. %,10d %s total.%s\n",
+                      operations, averagedOperations, unit, averageLatency, count, unit,
+                      formatGauges());
+    if (!perOps.isEmpty()) {
+      System.out.println("  per op:" + formatPerOps(perOps, delta));
+    }
+    if (!perSeconds.isEmpty()) {
+      System.out.println("  per s: " + formatPerOps(perSeconds, deltaTime / 1e9));
+    }
+    for (final Phase phase : phases) {
+      phase.print();
+    }
+    for (final Report report : reports) {
+      report.print();
+    }
     System.out.flush();
 
-    lastRows = count;
     lastTime = time;
-    lastLatency = latency;
+  }
+
+  private String formatGauges() {
+    final StringBuilder sb = new StringBuilder();
+    for (final Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue().value());
+    }
+    return sb.toString();
+  }
+
+  private String formatPerOps(final Map<String, PerOp> counters, final double ops) {
+    final StringBuilder sb = new StringBuilder();
+    for (final Map.Entry<String, PerOp> entry : counters.entrySet()) {
+      final PerOp perOp = entry.getValue();
+      final long value = perOp.counter.value();
+      final double perOpValue = ops == 0 ? 0 : (value - perOp.last) / ops;
+      perOp.last = value;
+      sb.append(String.format(" %s=%,.1f", entry.getKey(), perOpValue));
+    }
+    return sb.toString();
+  }
+
+  public void gauge(final String name, final Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /**
+   * Add a monotonic counter that is printed as its increase per operation every interval.
+   */
+  public void perOp(final String name, final Gauge counter) {
+    perOps.put(name, new PerOp(counter));
+  }
+
+  /**
+   * Add a monotonic counter that is printed as its increase per second every interval.
+   */
+  public void perSecond(final String name, final Gauge counter) {
+    perSeconds.put(name, new PerOp(counter));
+  }
+
+  /**
+   * Add a latency histogram that is printed every interval.
+   */
+  public Phase phase(final String name) {
+    final Phase phase = new Phase(name);
+    phases.add(phase);
+    return phase;
+  }
+
+  public void report(final Report report) {
+    reports.add(report);
+  }
+
+  /**
+   * Open a window that accumulates the intervals completed from now on, until it is closed.
+   */
+  public Window openWindow() {
+    final Window window = new Window();
+    windows.add(window);
+    return window;
+  }
+
+  public void closeWindow(final Window window) {
+    windows.remove(window);
   }
 
   public void finish() {
@@ -102,8 +294,15 @@ public class ProgressMeter {
     progress();
   }
 
+  /**
+   * Record completed operations and their total latency. Wait-free and uncontended: each thread
+   * records into its own histogram.
+   */
   public void inc(final long ops, final long latency) {
-    this.operations.addAndGet(ops);
-    this.latency.addAndGet(latency);
+    if (ops == 1) {
+      latencies.record(latency);
+    } else if (ops > 0) {
+      latencies.record(latency / ops, ops);
+    }
   }
 }
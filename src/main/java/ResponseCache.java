@@ -0,0 +1,123 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http2.Http2Headers;
+
+import static io.netty.buffer.Unpooled.unreleasableBuffer;
+
+/**
+ * Server side cache of complete responses keyed by request path, bounded by body bytes with LRU
+ * eviction. A hit costs one lookup and a duplicate of the cached body, the immutable headers are
+ * shared by every connection.
+ *
+ * The headers are still HPACK encoded on every hit: writeHeaders in this Netty version only
+ * takes {@link Http2Headers} and encodes them in the connection's frame writer, so there is no way
+ * to hand it a pre-encoded block while it still opens the stream. A hit saves building the headers
+ * and rendering the body, not the encoding.
+ */
+public class ResponseCache {
+
+  /**
+   * Renders the response for a path on a cache miss.
+   */
+  public interface Loader {
+
+    /**
+     * @return The response, or null if the path is not cacheable.
+     */
+    Entry load(String path);
+  }
+
+  public static class Entry {
+
+    private final Http2Headers headers;
+    private final ByteBuf body;
+
+    public Entry(final Http2Headers headers, final ByteBuf body) {
+      this.headers = headers;
+      this.body = unreleasableBuffer(body);
+    }
+
+    public Http2Headers headers() {
+      return headers;
+    }
+
+    /**
+     * A view of the body with its own indices. The cached buffer is never released, evicted
+     * bodies are reclaimed by the GC once no write refers to them.
+     */
+    public ByteBuf body() {
+      return body.duplicate();
+    }
+
+    private int size() {
+      return body.readableBytes();
+    }
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+  private final StripedCounter evictions = new StripedCounter();
+
+  public ResponseCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Look up the response for a path, loading and caching it on a miss.
+   *
+   * @return The response, or null if it is not cached and the loader could not render it.
+   */
+  public Entry get(final String path, final Loader loader) {
+    synchronized (this) {
+      final Entry entry = entries.get(path);
+      if (entry != null) {
+        hits.inc();
+        return entry;
+      }
+    }
+    misses.inc();
+    final Entry entry = loader.load(path);
+    if (entry != null && entry.size() <= maxBytes) {
+      put(path, entry);
+    }
+    return entry;
+  }
+
+  private synchronized void put(final String path, final Entry entry) {
+    final Entry previous = entries.put(path, entry);
+    if (previous != null) {
+      bytes -= previous.size();
+    }
+    bytes += entry.size();
+    final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      final Entry eldest = it.next().getValue();
+      it.remove();
+      bytes -= eldest.size();
+      evictions.inc();
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+}
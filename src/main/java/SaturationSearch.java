@@ -0,0 +1,217 @@
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the highest offered load, in requests kept in flight, at which a latency percentile stays
+ * under an SLO.
+ *
+ * Concurrency is doubled until a step misses the SLO, then binary searched between the last step
+ * that met it and the first that did not. Each step runs the {@link AsyncDriver} until two
+ * consecutive measurement windows agree on throughput, so that the result reflects steady state
+ * rather than the ramp up. Prints the throughput/latency curve, the highest passing load and the
+ * knee of the curve.
+ */
+public class SaturationSearch {
+
+  private static final double STEADY_TOLERANCE = 0.05;
+  private static final int MAX_WINDOWS = 5;
+
+  /**
+   * One measured point of the throughput/latency curve.
+   */
+  public static class Step {
+
+    private final int concurrency;
+    private final double throughput;
+    private final long p50Nanos;
+    private final long latencyNanos;
+    private final long errors;
+    private final boolean pass;
+
+    Step(final int concurrency, final double throughput, final long p50Nanos,
+         final long latencyNanos, final long errors, final boolean pass) {
+      this.concurrency = concurrency;
+      this.throughput = throughput;
+      this.p50Nanos = p50Nanos;
+      this.latencyNanos = latencyNanos;
+      this.errors = errors;
+      this.pass = pass;
+    }
+
+    public int concurrency() {
+      return concurrency;
+    }
+
+    public double throughput() {
+      return throughput;
+    }
+
+    public boolean pass() {
+      return pass;
+    }
+
+    /**
+     * Throughput over latency, highest at the knee of the curve: past it, added load buys more
+     * latency than throughput.
+     */
+    double power() {
+      return latencyNanos == 0 ? 0 : throughput / latencyNanos;
+    }
+  }
+
+  private final Http2Client client;
+  private final AsyncDriver.RequestFactory requests;
+  private final ProgressMeter meter;
+  private final StripedCounter errors;
+  private final long timeoutMillis;
+  private final double percentile;
+  private final long sloNanos;
+  private final int maxConcurrency;
+  private final long warmupSeconds;
+  private final long windowSeconds;
+
+  private final List<Step> steps = new ArrayList<>();
+
+  public SaturationSearch(final Http2Client client, final AsyncDriver.RequestFactory requests,
+                          final ProgressMeter meter, final StripedCounter errors,
+                          final long timeoutMillis, final double percentile,
+                          final double sloMillis, final int maxConcurrency,
+                          final long warmupSeconds, final long windowSeconds) {
+    this.client = client;
+    this.requests = requests;
+    this.meter = meter;
+    this.errors = errors;
+    this.timeoutMillis = timeoutMillis;
+    this.percentile = percentile;
+    this.sloNanos = (long) (sloMillis * 1000000);
+    this.maxConcurrency = maxConcurrency;
+    this.warmupSeconds = warmupSeconds;
+    this.windowSeconds = windowSeconds;
+  }
+
+  /**
+   * Run the search and print the curve.
+   *
+   * @return The step at the highest concurrency that met the SLO, or null if none did.
+   */
+  public Step run() throws InterruptedException {
+    int passing = 0;
+    int failing = 0;
+
+    // Exponential ramp to bracket the saturation point
+    for (int concurrency = 1; concurrency <= maxConcurrency; concurrency *= 2) {
+      if (measure(concurrency).pass()) {
+        passing = concurrency;
+      } else {
+        failing = concurrency;
+        break;
+      }
+    }
+    if (failing == 0 && passing < maxConcurrency) {
+      // Ramp overshot the limit without failing, the limit itself decides the upper bound
+      if (measure(maxConcurrency).pass()) {
+        passing = maxConcurrency;
+      } else {
+        failing = maxConcurrency;
+      }
+    }
+
+    // Binary search to within 5% of the passing concurrency
+    while (failing != 0 && failing - passing > Math.max(1, passing / 20)) {
+      final int concurrency = passing + (failing - passing) / 2;
+      if (measure(concurrency).pass()) {
+        passing = concurrency;
+      } else {
+        failing = concurrency;
+      }
+    }
+
+    return report(passing);
+  }
+
+  private Step measure(final int concurrency) throws InterruptedException {
+    System.out.printf("search: concurrency %,d\n", concurrency);
+    final AsyncDriver driver =
+        new AsyncDriver(client, requests, meter, errors, timeoutMillis, null);
+    driver.start(concurrency);
+    Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+
+    final long errorsBefore = errors.sum();
+    ProgressMeter.Window window = measureWindow();
+    for (int i = 1; i < MAX_WINDOWS; i++) {
+      final ProgressMeter.Window next = measureWindow();
+      final boolean steady = Math.abs(next.throughput() - window.throughput())
+                             <= STEADY_TOLERANCE * window.throughput();
+      window = next;
+      if (steady) {
+        break;
+      }
+    }
+    final long stepErrors = errors.sum() - errorsBefore;
+
+    if (!driver.stop(timeoutMillis == 0 ? 10000 : timeoutMillis, TimeUnit.MILLISECONDS)) {
+      System.out.printf("search: %,d requests still in flight after the step\n",
+                        driver.inFlight());
+    }
+
+    final Histogram histogram = window.histogram();
+    final long latency = histogram.getValueAtPercentile(percentile);
+    final boolean pass = histogram.getTotalCount() > 0 && latency <= sloNanos && stepErrors == 0;
+    final Step step = new Step(concurrency, window.throughput(),
+                               histogram.getValueAtPercentile(50), latency, stepErrors, pass);
+    steps.add(step);
+    return step;
+  }
+
+  private ProgressMeter.Window measureWindow() throws InterruptedException {
+    final ProgressMeter.Window window = meter.openWindow();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(windowSeconds));
+    meter.closeWindow(window);
+    return window;
+  }
+
+  private Step report(final int passing) {
+    final List<Step> curve = new ArrayList<>(steps);
+    Collections.sort(curve, new Comparator<Step>() {
+      @Override
+      public int compare(final Step a, final Step b) {
+        return Integer.compare(a.concurrency, b.concurrency);
+      }
+    });
+
+    Step best = null;
+    Step knee = null;
+    System.out.printf("%12s %14s %12s %12s %8s %6s\n",
+                      "concurrency", "ops/s", "p50 ms", "p" + percentile + " ms", "errors", "slo");
+    for (final Step step : curve) {
+      System.out.printf("%,12d %,14.0f %,12.3f %,12.3f %,8d %6s\n",
+                        step.concurrency, step.throughput, Metrics.millis(step.p50Nanos),
+                        Metrics.millis(step.latencyNanos), step.errors,
+                        step.pass ? "pass" : "FAIL");
+      if (step.concurrency == passing && step.pass) {
+        best = step;
+      }
+      if (step.pass && (knee == null || step.power() > knee.power())) {
+        knee = step;
+      }
+    }
+
+    if (best == null) {
+      System.out.printf("No load met p%s <= %,.3f ms\n", percentile, Metrics.millis(sloNanos));
+    } else {
+      System.out.printf("Max load under SLO: concurrency %,d, %,.0f ops/s, p%s %,.3f ms\n",
+                        best.concurrency, best.throughput, percentile,
+                        Metrics.millis(best.latencyNanos));
+      System.out.printf("Knee: concurrency %,d, %,.0f ops/s, p%s %,.3f ms\n",
+                        knee.concurrency, knee.throughput, percentile,
+                        Metrics.millis(knee.latencyNanos));
+    }
+    System.out.flush();
+    return best;
+  }
+}
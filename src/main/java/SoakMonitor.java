@@ -0,0 +1,120 @@
+import org.HdrHistogram.Histogram;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints a line per period for long runs: throughput, latency percentiles, memory and GC, and the
+ * drift of latency and retained heap relative to the first period. A slow leak shows as heap after
+ * GC creeping up period over period, long before the run fails.
+ */
+public class SoakMonitor {
+
+  private final ProgressMeter meter;
+  private final Http2Client client;
+  private final ConnectionRotation rotation;
+  private final long periodSeconds;
+  private final Thread worker;
+
+  private volatile boolean run = true;
+
+  private long baselineP99;
+  private long baselineRetained;
+  private long lastGcCount;
+  private long lastGcMillis;
+
+  public SoakMonitor(final ProgressMeter meter, final Http2Client client,
+                     final ConnectionRotation rotation, final long periodSeconds) {
+    this.meter = meter;
+    this.client = client;
+    this.rotation = rotation;
+    this.periodSeconds = periodSeconds;
+    this.worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          monitor();
+        } catch (InterruptedException ignore) {
+        }
+      }
+    });
+  }
+
+  public void start() {
+    worker.start();
+  }
+
+  public void stop() {
+    run = false;
+    worker.interrupt();
+  }
+
+  private void monitor() throws InterruptedException {
+    final long startNanos = System.nanoTime();
+    while (run) {
+      final ProgressMeter.Window window = meter.openWindow();
+      Thread.sleep(TimeUnit.SECONDS.toMillis(periodSeconds));
+      meter.closeWindow(window);
+      print(System.nanoTime() - startNanos, window);
+    }
+  }
+
+  private void print(final long elapsedNanos, final ProgressMeter.Window window) {
+    final Histogram histogram = window.histogram();
+    final long p99 = histogram.getValueAtPercentile(99);
+    final long retained = heapAfterGc();
+    if (baselineP99 == 0) {
+      baselineP99 = p99;
+      baselineRetained = retained;
+    }
+
+    long gcCount = 0;
+    long gcMillis = 0;
+    for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(0, gc.getCollectionCount());
+      gcMillis += Math.max(0, gc.getCollectionTime());
+    }
+
+    final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    System.out.printf("soak %6.1fh: %,10.0f ops/s. p50 %,.3f p99 %,.3f max %,.3f ms. " +
+                      "p99 drift %+.1f%%. heap %,d MB, after gc %,d MB (drift %+.1f%%). " +
+                      "direct %,d MB. gc %,d (%,d ms). rotations %,d, draining %d\n",
+                      elapsedNanos / 3.6e12,
+                      window.throughput(),
+                      Metrics.millis(histogram.getValueAtPercentile(50)),
+                      Metrics.millis(p99),
+                      Metrics.millis(histogram.getMaxValue()),
+                      drift(p99, baselineP99),
+                      heap.getUsed() / (1024 * 1024),
+                      retained / (1024 * 1024),
+                      drift(retained, baselineRetained),
+                      Metrics.directMemoryUsed() / (1024 * 1024),
+                      gcCount - lastGcCount, gcMillis - lastGcMillis,
+                      rotation == null ? 0 : rotation.rotations(),
+                      client.drainingConnections());
+    System.out.flush();
+    lastGcCount = gcCount;
+    lastGcMillis = gcMillis;
+  }
+
+  /**
+   * Heap in use right after the most recent collection of each pool, i.e. the live set.
+   */
+  private static long heapAfterGc() {
+    long used = 0;
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+        used += pool.getCollectionUsage().getUsed();
+      }
+    }
+    return used;
+  }
+
+  private static double drift(final long value, final long baseline) {
+    return baseline == 0 ? 0 : 100.0 * (value - baseline) / baseline;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * HTTP/2 stream priority: the stream this stream depends on, its weight among siblings and whether
+ * the dependency is exclusive.
+ */
+public final class StreamPriority {
+
+  public static final short MIN_WEIGHT = 1;
+  public static final short DEFAULT_WEIGHT = 16;
+  public static final short MAX_WEIGHT = 256;
+
+  public static final StreamPriority DEFAULT = new StreamPriority(0, DEFAULT_WEIGHT, false);
+
+  private final int streamDependency;
+  private final short weight;
+  private final boolean exclusive;
+
+  public StreamPriority(final int streamDependency, final short weight, final boolean exclusive) {
+    if (weight < MIN_WEIGHT || weight > MAX_WEIGHT) {
+      throw new IllegalArgumentException("weight must be in [1, 256]: " + weight);
+    }
+    this.streamDependency = streamDependency;
+    this.weight = weight;
+    this.exclusive = exclusive;
+  }
+
+  /**
+   * A priority that only sets the weight, depending on the root stream.
+   */
+  public static StreamPriority weight(final int weight) {
+    return new StreamPriority(0, (short) weight, false);
+  }
+
+  public int streamDependency() {
+    return streamDependency;
+  }
+
+  public short weight() {
+    return weight;
+  }
+
+  public boolean exclusive() {
+    return exclusive;
+  }
+
+  @Override
+  public String toString() {
+    return "StreamPriority{" +
+           "streamDependency=" + streamDependency +
+           ", weight=" + weight +
+           ", exclusive=" + exclusive +
+           '}';
+  }
+}
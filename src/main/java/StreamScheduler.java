@@ -0,0 +1,103 @@
+import java.util.ArrayDeque;
+
+import io.netty.channel.Channel;
+
+/**
+ * Per-connection stream scheduler. Requests beyond the peer's SETTINGS_MAX_CONCURRENT_STREAMS, or
+ * submitted while the channel is not writable, are queued and released as streams close and the
+ * channel drains.
+ *
+ * Not thread safe, must only be used from the channel's event loop. {@link #queueDepth()} may be
+ * read from any thread.
+ */
+public class StreamScheduler<T> {
+
+  public interface Starter<T> {
+
+    /**
+     * Open a stream for the request.
+     *
+     * @return false if the request was abandoned while queued and no stream was opened.
+     */
+    boolean start(T request);
+  }
+
+  // Allocated on the first submit, idle connections never queue anything
+  private ArrayDeque<T> queue;
+  private final Channel channel;
+  private final Starter<T> starter;
+
+  private int maxConcurrentStreams = Integer.MAX_VALUE;
+  private int activeStreams;
+
+  private volatile int queueDepth;
+
+  public StreamScheduler(final Channel channel, final Starter<T> starter) {
+    this.channel = channel;
+    this.starter = starter;
+  }
+
+  /**
+   * Queue a request and start as many queued requests as the stream limit and channel writability
+   * allow.
+   */
+  public void submit(final T request) {
+    if (queue == null) {
+      queue = new ArrayDeque<>();
+    }
+    queue.add(request);
+    drain();
+  }
+
+  /**
+   * Update the stream limit advertised by the peer.
+   */
+  public void maxConcurrentStreams(final int maxConcurrentStreams) {
+    this.maxConcurrentStreams = maxConcurrentStreams;
+    drain();
+  }
+
+  /**
+   * Release a stream slot after a stream has been closed or reset.
+   */
+  public void streamClosed() {
+    activeStreams--;
+    drain();
+  }
+
+  /**
+   * Start queued requests, e.g. after the channel became writable again.
+   */
+  public void drain() {
+    if (queue == null) {
+      return;
+    }
+    while (!queue.isEmpty() && activeStreams < maxConcurrentStreams && channel.isWritable()) {
+      if (starter.start(queue.poll())) {
+        activeStreams++;
+      }
+    }
+    queueDepth = queue.size();
+  }
+
+  /**
+   * Remove and return all queued requests that have not been started.
+   */
+  public ArrayDeque<T> clear() {
+    if (queue == null) {
+      return new ArrayDeque<>(0);
+    }
+    final ArrayDeque<T> cleared = new ArrayDeque<>(queue);
+    queue.clear();
+    queueDepth = 0;
+    return cleared;
+  }
+
+  public int activeStreams() {
+    return activeStreams;
+  }
+
+  public int queueDepth() {
+    return queueDepth;
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Event loop timestamps ({@link System#nanoTime()}) of a single client stream, from submission to
+ * the end of the response.
+ */
+public final class StreamTimings {
+
+  /**
+   * Notified on the event loop when a response has been completely received.
+   */
+  public interface Listener {
+
+    void streamCompleted(StreamTimings timings);
+  }
+
+  int streamId;
+  long submitNanos;
+  long writeNanos;
+  long headersNanos;
+  long firstDataNanos;
+  long endNanos;
+  long bytes;
+
+  public int streamId() {
+    return streamId;
+  }
+
+  /**
+   * Time spent queued in the client before the request HEADERS were written.
+   */
+  public long queueNanos() {
+    return writeNanos - submitNanos;
+  }
+
+  /**
+   * Time from writing the request until the response HEADERS arrived: network plus server time.
+   */
+  public long headersNanos() {
+    return headersNanos - writeNanos;
+  }
+
+  /**
+   * True if the response had a DATA frame. Without one there is no first byte or body phase.
+   */
+  public boolean hasData() {
+    return firstDataNanos != 0;
+  }
+
+  /**
+   * Time from the response HEADERS until the first DATA frame, 0 for responses without a body.
+   */
+  public long firstByteNanos() {
+    return firstDataNanos == 0 ? 0 : firstDataNanos - headersNanos;
+  }
+
+  /**
+   * Time from the first DATA frame until the end of the stream: body transfer.
+   */
+  public long bodyNanos() {
+    return firstDataNanos == 0 ? 0 : endNanos - firstDataNanos;
+  }
+
+  public long totalNanos() {
+    return endNanos - submitNanos;
+  }
+
+  /**
+   * Response body bytes received.
+   */
+  public long bytes() {
+    return bytes;
+  }
+}
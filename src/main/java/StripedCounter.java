@@ -0,0 +1,43 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads increments over padded cells selected by thread, so that threads
+ * incrementing concurrently do not contend on the same cache line. Reads sum all cells and are
+ * not atomic with respect to concurrent increments.
+ */
+public class StripedCounter {
+
+  /**
+   * Longs per cell, keeps cells on separate (pairs of) cache lines.
+   */
+  private static final int PADDING = 16;
+
+  private static final int STRIPES =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void inc() {
+    add(1);
+  }
+
+  public void add(final long delta) {
+    cells.getAndAdd(index(), delta);
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  private static int index() {
+    long id = Thread.currentThread().getId();
+    id ^= id >>> 16;
+    id *= 0x85ebca6bL;
+    id ^= id >>> 13;
+    return ((int) id & (STRIPES - 1)) * PADDING;
+  }
+}
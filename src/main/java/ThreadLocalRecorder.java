@@ -0,0 +1,56 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records values into a histogram per writing thread. Each thread's histogram is double-buffered
+ * by a {@link SingleWriterRecorder}, so recording never contends with other writers or with the
+ * reporter, which swaps out every thread's histogram and sums them once per interval.
+ */
+public class ThreadLocalRecorder {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private static class Writer {
+
+    private final SingleWriterRecorder recorder = new SingleWriterRecorder(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+  }
+
+  private final List<Writer> writers = new CopyOnWriteArrayList<>();
+
+  private final ThreadLocal<Writer> writer = new ThreadLocal<Writer>() {
+    @Override
+    protected Writer initialValue() {
+      final Writer writer = new Writer();
+      writers.add(writer);
+      return writer;
+    }
+  };
+
+  public void record(final long value) {
+    writer.get().recorder.recordValue(value);
+  }
+
+  public void record(final long value, final long count) {
+    writer.get().recorder.recordValueWithCount(value, count);
+  }
+
+  /**
+   * Swap out the histograms of all writing threads and return the sum of the values recorded
+   * since the previous call.
+   *
+   * @param target A histogram to reuse, or null.
+   */
+  public synchronized Histogram intervalHistogram(final Histogram target) {
+    final Histogram sum = target == null ? new Histogram(SIGNIFICANT_DIGITS) : target;
+    sum.reset();
+    for (final Writer writer : writers) {
+      writer.interval = writer.recorder.getIntervalHistogram(writer.interval);
+      sum.add(writer.interval);
+    }
+    return sum;
+  }
+}
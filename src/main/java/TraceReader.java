@@ -0,0 +1,217 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Streaming parser for request trace files. The file is memory-mapped one window at a time, so
+ * traces of any size are read without loading them into the heap.
+ *
+ * Each line is one request, tab separated:
+ *
+ * <pre>
+ * offset-micros  method  path  body-bytes  [name: value]...
+ * </pre>
+ *
+ * where offset-micros is the time since the start of the trace. Empty lines and lines starting
+ * with '#' are skipped. Header names are lower-cased as required by HTTP/2.
+ *
+ * Not thread safe.
+ */
+public class TraceReader implements Closeable {
+
+  private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+  public static class Record {
+
+    private final long offsetMicros;
+    private final String method;
+    private final String path;
+    private final int bodyBytes;
+    private final List<String[]> headers;
+
+    Record(final long offsetMicros, final String method, final String path, final int bodyBytes,
+           final List<String[]> headers) {
+      this.offsetMicros = offsetMicros;
+      this.method = method;
+      this.path = path;
+      this.bodyBytes = bodyBytes;
+      this.headers = headers;
+    }
+
+    public long offsetMicros() {
+      return offsetMicros;
+    }
+
+    public String method() {
+      return method;
+    }
+
+    public String path() {
+      return path;
+    }
+
+    public int bodyBytes() {
+      return bodyBytes;
+    }
+
+    /**
+     * Header name and value pairs.
+     */
+    public List<String[]> headers() {
+      return headers;
+    }
+  }
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+
+  private long windowStart;
+  private MappedByteBuffer window;
+  private byte[] line = new byte[1024];
+  private long lineNumber;
+
+  public TraceReader(final File file) throws IOException {
+    this(file, WINDOW_SIZE);
+  }
+
+  /**
+   * @param windowSize Bytes of the file mapped at a time.
+   */
+  TraceReader(final File file, final long windowSize) throws IOException {
+    this.file = file;
+    this.windowSize = windowSize;
+    this.raf = new RandomAccessFile(file, "r");
+    this.channel = raf.getChannel();
+    this.size = channel.size();
+    map(0);
+  }
+
+  private void map(final long position) throws IOException {
+    windowStart = position;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                         Math.min(windowSize, size - position));
+  }
+
+  /**
+   * Start over from the beginning of the file.
+   */
+  public void rewind() throws IOException {
+    lineNumber = 0;
+    if (windowStart == 0) {
+      window.position(0);
+    } else {
+      map(0);
+    }
+  }
+
+  /**
+   * @return The next request, or null at the end of the file.
+   */
+  public Record next() throws IOException {
+    while (true) {
+      final int length = readLine();
+      if (length < 0) {
+        return null;
+      }
+      if (length == 0 || line[0] == '#') {
+        continue;
+      }
+      return parse(length);
+    }
+  }
+
+  /**
+   * Copy the next line into {@link #line}, remapping the window when the line crosses its end.
+   *
+   * @return The line length without terminator, or -1 at the end of the file.
+   */
+  private int readLine() throws IOException {
+    int length = 0;
+    while (true) {
+      if (!window.hasRemaining()) {
+        final long next = windowStart + window.limit();
+        if (next >= size) {
+          if (length == 0) {
+            return -1;
+          }
+          // Last line without a terminator
+          lineNumber++;
+          return stripCr(length);
+        }
+        map(next);
+      }
+      final byte b = window.get();
+      if (b == '\n') {
+        lineNumber++;
+        return stripCr(length);
+      }
+      if (length == line.length) {
+        final byte[] grown = new byte[line.length * 2];
+        System.arraycopy(line, 0, grown, 0, length);
+        line = grown;
+      }
+      line[length++] = b;
+    }
+  }
+
+  private int stripCr(final int length) {
+    return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+  }
+
+  private Record parse(final int length) throws IOException {
+    final List<String> fields = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || line[i] == '\t') {
+        fields.add(new String(line, start, i - start, ISO_8859_1));
+        start = i + 1;
+      }
+    }
+    if (fields.size() < 4) {
+      throw error("expected at least 4 fields, got " + fields.size());
+    }
+    final List<String[]> headers = new ArrayList<>(fields.size() - 4);
+    for (int i = 4; i < fields.size(); i++) {
+      final String header = fields.get(i);
+      final int colon = header.indexOf(':');
+      if (colon <= 0) {
+        throw error("malformed header: " + header);
+      }
+      headers.add(new String[]{header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                               header.substring(colon + 1).trim()});
+    }
+    final long offsetMicros;
+    final int bodyBytes;
+    try {
+      offsetMicros = Long.parseLong(fields.get(0));
+      bodyBytes = Integer.parseInt(fields.get(3));
+    } catch (NumberFormatException e) {
+      throw error(e.getMessage());
+    }
+    if (bodyBytes < 0) {
+      throw error("negative body-bytes: " + bodyBytes);
+    }
+    return new Record(offsetMicros, fields.get(1), fields.get(2), bodyBytes, headers);
+  }
+
+  private IOException error(final String message) {
+    return new IOException(file + ":" + lineNumber + ": " + message);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    raf.close();
+  }
+}
@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import static io.netty.buffer.Unpooled.unreleasableBuffer;
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Replays a request trace read by a {@link TraceReader}, either closed loop as fast as the
+ * driver's concurrency allows, or open loop at the recorded times scaled by a speed multiplier.
+ * The trace starts over when it reaches the end.
+ */
+public class TraceReplay {
+
+  private static final int SHARED_BODY_BYTES = 64 * 1024;
+  private static final ByteBuf ZEROS =
+      unreleasableBuffer(wrappedBuffer(new byte[SHARED_BODY_BYTES]));
+
+  private final Http2Client client;
+  private final ProgressMeter meter;
+  private final StripedCounter errors;
+  private final long timeoutMillis;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  public TraceReplay(final Http2Client client, final ProgressMeter meter,
+                     final StripedCounter errors, final long timeoutMillis) {
+    this.client = client;
+    this.meter = meter;
+    this.errors = errors;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  static FullHttpRequest toRequest(final TraceReader.Record record) {
+    final int bodyBytes = record.bodyBytes();
+    final ByteBuf content;
+    if (bodyBytes == 0) {
+      content = Unpooled.EMPTY_BUFFER;
+    } else if (bodyBytes <= SHARED_BODY_BYTES) {
+      content = ZEROS.slice(0, bodyBytes);
+    } else {
+      content = Unpooled.buffer(bodyBytes).writeZero(bodyBytes);
+    }
+    final FullHttpRequest request = new DefaultFullHttpRequest(
+        HTTP_1_1, HttpMethod.valueOf(record.method()), record.path(), content);
+    for (final String[] header : record.headers()) {
+      request.headers().add(header[0], header[1]);
+    }
+    return request;
+  }
+
+  /**
+   * Closed loop replay: each call returns the request of the next trace record.
+   */
+  public static AsyncDriver.RequestFactory requestFactory(final TraceReader reader) {
+    return new AsyncDriver.RequestFactory() {
+      @Override
+      public FullHttpRequest newRequest() {
+        synchronized (reader) {
+          try {
+            TraceReader.Record record = reader.next();
+            if (record == null) {
+              reader.rewind();
+              record = reader.next();
+              if (record == null) {
+                throw new IllegalStateException("Empty trace");
+              }
+            }
+            return toRequest(record);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Open loop replay: send every request at its recorded offset divided by {@code speed}, whether
+   * or not earlier requests have completed. Latency is measured from the scheduled send time, so
+   * falling behind the trace shows up as latency instead of being hidden.
+   *
+   * Returns once the duration has passed by the wall clock and the requests sent have completed.
+   *
+   * @param durationNanos How long to replay, 0 to replay until interrupted.
+   * @throws IllegalArgumentException If the trace is empty or all its records are at offset 0, as
+   *                                  it then has no timing to replay.
+   */
+  public void replay(final TraceReader reader, final double speed, final long durationNanos)
+      throws IOException, InterruptedException {
+    final long start = System.nanoTime();
+    final long end = durationNanos > 0 ? start + durationNanos : Long.MAX_VALUE;
+    long cycleOffsetMicros = 0;
+    long lastOffsetMicros = 0;
+    int cycleRecords = 0;
+    while (!Thread.currentThread().isInterrupted() && System.nanoTime() - end < 0) {
+      final TraceReader.Record record = reader.next();
+      if (record == null) {
+        if (cycleRecords == 0) {
+          throw new IllegalArgumentException("Empty trace");
+        }
+        if (lastOffsetMicros == 0) {
+          throw new IllegalArgumentException(
+              "Trace records are all at offset 0, replay it closed loop with --speed 0");
+        }
+        reader.rewind();
+        cycleOffsetMicros += lastOffsetMicros;
+        lastOffsetMicros = 0;
+        cycleRecords = 0;
+        continue;
+      }
+      cycleRecords++;
+      lastOffsetMicros = record.offsetMicros();
+      final long offsetNanos = (long) ((cycleOffsetMicros + lastOffsetMicros) * 1000 / speed);
+      final long scheduledNanos = start + offsetNanos;
+      if (scheduledNanos - end >= 0) {
+        break;
+      }
+      long wait;
+      while ((wait = scheduledNanos - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      send(toRequest(record), scheduledNanos);
+    }
+    awaitInFlight();
+  }
+
+  /**
+   * Wait for the requests sent to complete, at most their deadline (10 s without one).
+   */
+  private void awaitInFlight() throws InterruptedException {
+    final long timeout = timeoutMillis == 0 ? 10000 : timeoutMillis;
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    synchronized (inFlight) {
+      long remaining;
+      while (inFlight.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(inFlight, remaining);
+      }
+    }
+  }
+
+  private void send(final FullHttpRequest request, final long scheduledNanos) {
+    inFlight.incrementAndGet();
+    client.send(request, StreamPriority.DEFAULT, timeoutMillis)
+        .addListener(new GenericFutureListener<Future<FullHttpResponse>>() {
+          @Override
+          public void operationComplete(final Future<FullHttpResponse> future) {
+            if (future.isSuccess()) {
+              future.getNow().release();
+              meter.inc(1, System.nanoTime() - scheduledNanos);
+            } else {
+              errors.inc();
+            }
+            if (inFlight.decrementAndGet() == 0) {
+              synchronized (inFlight) {
+                inFlight.notifyAll();
+              }
+            }
+          }
+        });
+  }
+}
@@ -0,0 +1,300 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.ObjectName;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.internal.logging.InternalLogLevel;
+import io.netty.util.internal.logging.InternalLogger;
+
+/**
+ * Wire level accounting for one side of the benchmark: bytes read and written, flushes and writes
+ * handed to the transport, counted by a handler at the head of each pipeline, and HTTP/2 frames by
+ * type and direction, counted by a frame logger installed in each connection's frame reader and
+ * writer.
+ *
+ * The frame logger also traces a sample of frames. The sample rate can be changed at runtime
+ * through the {@code WireMeter} MBean, e.g. from jconsole.
+ *
+ * The handler and the frame logger are only installed while {@link Metrics#metering()} is on, the
+ * frame logger also while frames are traced. Connections opened without them are not counted or
+ * traced.
+ */
+public class WireMeter {
+
+  public enum FrameType {
+    DATA, HEADERS, PRIORITY, RST_STREAM, SETTINGS, PING, PUSH_PROMISE, GOAWAY, WINDOW_UPDATE
+  }
+
+  public interface WireMeterMXBean {
+
+    double getFrameTraceSampleRate();
+
+    /**
+     * Fraction of frames to log, 0 to disable frame tracing.
+     */
+    void setFrameTraceSampleRate(double rate);
+  }
+
+  public static final WireMeter CLIENT = new WireMeter("client");
+  public static final WireMeter SERVER = new WireMeter("server");
+
+  private static volatile double frameTraceSampleRate;
+
+  static {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new WireMeterMXBean() {
+        @Override
+        public double getFrameTraceSampleRate() {
+          return frameTraceSampleRate;
+        }
+
+        @Override
+        public void setFrameTraceSampleRate(final double rate) {
+          frameTraceSampleRate = rate;
+        }
+      }, new ObjectName("netty5-http2-bench:type=WireMeter"));
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final String name;
+  private final StripedCounter bytesRead = new StripedCounter();
+  private final StripedCounter bytesWritten = new StripedCounter();
+  private final StripedCounter writes = new StripedCounter();
+  private final StripedCounter flushes = new StripedCounter();
+  private final StripedCounter[] framesRead = newCounters(FrameType.values().length);
+  private final StripedCounter[] framesWritten = newCounters(FrameType.values().length);
+  private final Handler handler = new Handler();
+
+  private WireMeter(final String name) {
+    this.name = name;
+  }
+
+  private static StripedCounter[] newCounters(final int n) {
+    final StripedCounter[] counters = new StripedCounter[n];
+    for (int i = 0; i < n; i++) {
+      counters[i] = new StripedCounter();
+    }
+    return counters;
+  }
+
+  public static void frameTraceSampleRate(final double rate) {
+    frameTraceSampleRate = rate;
+  }
+
+  /**
+   * Whether new connections should install the frame logger: to count frames, or to trace them.
+   */
+  public static boolean frameLogging() {
+    return Metrics.metering() || frameTraceSampleRate > 0;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * The shared handler to add at the head of every pipeline on this side.
+   */
+  public ChannelHandler handler() {
+    return handler;
+  }
+
+  /**
+   * A frame logger that counts frames and logs a sample of them.
+   */
+  public Http2FrameLogger frameLogger(final InternalLogLevel level, final InternalLogger logger) {
+    return new FrameCounter(level, logger);
+  }
+
+  public long bytesRead() {
+    return bytesRead.sum();
+  }
+
+  public long bytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  public long writes() {
+    return writes.sum();
+  }
+
+  public long flushes() {
+    return flushes.sum();
+  }
+
+  public long framesRead() {
+    return sum(framesRead);
+  }
+
+  public long framesWritten() {
+    return sum(framesWritten);
+  }
+
+  public long framesRead(final FrameType type) {
+    return framesRead[type.ordinal()].sum();
+  }
+
+  public long framesWritten(final FrameType type) {
+    return framesWritten[type.ordinal()].sum();
+  }
+
+  private static long sum(final StripedCounter[] counters) {
+    long sum = 0;
+    for (final StripedCounter counter : counters) {
+      sum += counter.sum();
+    }
+    return sum;
+  }
+
+  private static long size(final Object msg) {
+    if (msg instanceof ByteBuf) {
+      return ((ByteBuf) msg).readableBytes();
+    }
+    if (msg instanceof ByteBufHolder) {
+      return ((ByteBufHolder) msg).content().readableBytes();
+    }
+    return 0;
+  }
+
+  @ChannelHandler.Sharable
+  private class Handler extends ChannelHandlerAdapter {
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+      bytesRead.add(size(msg));
+      ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg,
+                      final ChannelPromise promise) throws Exception {
+      bytesWritten.add(size(msg));
+      writes.inc();
+      ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) throws Exception {
+      flushes.inc();
+      ctx.flush();
+    }
+  }
+
+  private class FrameCounter extends Http2FrameLogger {
+
+    FrameCounter(final InternalLogLevel level, final InternalLogger logger) {
+      super(level, logger);
+    }
+
+    private boolean count(final Direction direction, final FrameType type) {
+      final StripedCounter[] counters =
+          direction == Direction.INBOUND ? framesRead : framesWritten;
+      counters[type.ordinal()].inc();
+      final double rate = frameTraceSampleRate;
+      return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    @Override
+    public void logData(Direction direction, int streamId, ByteBuf data, int padding,
+                        boolean endStream, boolean endSegment) {
+      if (count(direction, FrameType.DATA)) {
+        super.logData(direction, streamId, data, padding, endStream, endSegment);
+      }
+    }
+
+    @Override
+    public void logHeaders(Direction direction, int streamId, Http2Headers headers, int padding,
+                           boolean endStream, boolean endSegment) {
+      if (count(direction, FrameType.HEADERS)) {
+        super.logHeaders(direction, streamId, headers, padding, endStream, endSegment);
+      }
+    }
+
+    @Override
+    public void logHeaders(Direction direction, int streamId, Http2Headers headers,
+                           int streamDependency, short weight, boolean exclusive, int padding,
+                           boolean endStream, boolean endSegment) {
+      if (count(direction, FrameType.HEADERS)) {
+        super.logHeaders(direction, streamId, headers, streamDependency, weight, exclusive,
+                         padding, endStream, endSegment);
+      }
+    }
+
+    @Override
+    public void logPriority(Direction direction, int streamId, int streamDependency,
+                            short weight, boolean exclusive) {
+      if (count(direction, FrameType.PRIORITY)) {
+        super.logPriority(direction, streamId, streamDependency, weight, exclusive);
+      }
+    }
+
+    @Override
+    public void logRstStream(Direction direction, int streamId, long errorCode) {
+      if (count(direction, FrameType.RST_STREAM)) {
+        super.logRstStream(direction, streamId, errorCode);
+      }
+    }
+
+    @Override
+    public void logSettingsAck(Direction direction) {
+      if (count(direction, FrameType.SETTINGS)) {
+        super.logSettingsAck(direction);
+      }
+    }
+
+    @Override
+    public void logSettings(Direction direction, Http2Settings settings) {
+      if (count(direction, FrameType.SETTINGS)) {
+        super.logSettings(direction, settings);
+      }
+    }
+
+    @Override
+    public void logPing(Direction direction, ByteBuf data) {
+      if (count(direction, FrameType.PING)) {
+        super.logPing(direction, data);
+      }
+    }
+
+    @Override
+    public void logPingAck(Direction direction, ByteBuf data) {
+      if (count(direction, FrameType.PING)) {
+        super.logPingAck(direction, data);
+      }
+    }
+
+    @Override
+    public void logPushPromise(Direction direction, int streamId, int promisedStreamId,
+                               Http2Headers headers, int padding) {
+      if (count(direction, FrameType.PUSH_PROMISE)) {
+        super.logPushPromise(direction, streamId, promisedStreamId, headers, padding);
+      }
+    }
+
+    @Override
+    public void logGoAway(Direction direction, int lastStreamId, long errorCode,
+                          ByteBuf debugData) {
+      if (count(direction, FrameType.GOAWAY)) {
+        super.logGoAway(direction, lastStreamId, errorCode, debugData);
+      }
+    }
+
+    @Override
+    public void logWindowsUpdate(Direction direction, int streamId, int windowSizeIncrement) {
+      if (count(direction, FrameType.WINDOW_UPDATE)) {
+        super.logWindowsUpdate(direction, streamId, windowSizeIncrement);
+      }
+    }
+  }
+}
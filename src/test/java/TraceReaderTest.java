@@ -0,0 +1,113 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TraceReaderTest {
+
+  private static final String TRACE =
+      "# offset\tmethod\tpath\tbody\n" +
+      "0\tGET\t/\t0\n" +
+      "\n" +
+      "1500\tPOST\t/a/much/longer/path/spanning/several/windows\t42\tX-Name: Value\n" +
+      "3000\tGET\t/bytes/4096\t0\r\n" +
+      "4500\tGET\t/last\t0";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReadsLinesCrossingWindows() throws IOException {
+    // Small windows so that lines start, end and span several windows at every offset
+    for (int windowSize = 1; windowSize <= 16; windowSize++) {
+      try (TraceReader reader = new TraceReader(write(TRACE), windowSize)) {
+        assertTrace(readAll(reader));
+      }
+    }
+  }
+
+  @Test
+  public void testRewindAfterRemap() throws IOException {
+    try (TraceReader reader = new TraceReader(write(TRACE), 8)) {
+      assertTrace(readAll(reader));
+      reader.rewind();
+      assertTrace(readAll(reader));
+    }
+  }
+
+  @Test
+  public void testRewindWithinFirstWindow() throws IOException {
+    try (TraceReader reader = new TraceReader(write(TRACE))) {
+      assertEquals("/", reader.next().path());
+      reader.rewind();
+      assertTrace(readAll(reader));
+    }
+  }
+
+  @Test
+  public void testHeaderNamesLowerCasedIndependentOfLocale() throws IOException {
+    final Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try (TraceReader reader = new TraceReader(write("0\tGET\t/\t0\tX-ID: 1\n"))) {
+      assertArrayEquals(new String[]{"x-id", "1"}, reader.next().headers().get(0));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void testRejectsNegativeBodyBytes() throws IOException {
+    final File file = write("0\tGET\t/\t0\n0\tPOST\t/\t-1\n");
+    try (TraceReader reader = new TraceReader(file)) {
+      reader.next();
+      reader.next();
+      fail("expected an error for negative body-bytes");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(file + ":2: "));
+    }
+  }
+
+  private static void assertTrace(final List<TraceReader.Record> records) {
+    assertEquals(4, records.size());
+    assertEquals(0, records.get(0).offsetMicros());
+    assertEquals("/", records.get(0).path());
+    assertEquals(1500, records.get(1).offsetMicros());
+    assertEquals("POST", records.get(1).method());
+    assertEquals("/a/much/longer/path/spanning/several/windows", records.get(1).path());
+    assertEquals(42, records.get(1).bodyBytes());
+    assertArrayEquals(new String[]{"x-name", "Value"}, records.get(1).headers().get(0));
+    assertEquals("/bytes/4096", records.get(2).path());
+    assertEquals("/last", records.get(3).path());
+  }
+
+  private static List<TraceReader.Record> readAll(final TraceReader reader) throws IOException {
+    final List<TraceReader.Record> records = new ArrayList<>();
+    TraceReader.Record record;
+    while ((record = reader.next()) != null) {
+      records.add(record);
+    }
+    assertNull(reader.next());
+    return records;
+  }
+
+  private File write(final String content) throws IOException {
+    final File file = folder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes(ISO_8859_1));
+    }
+    return file;
+  }
+}